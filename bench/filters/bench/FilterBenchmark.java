@@ -0,0 +1,57 @@
+package filters.bench;
+
+import filters.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import twitter4j.Status;
+import util.bench.BenchData;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of Filter.matches over a corpus of tweets, for each query string in BenchData.
+ * Scores are tweets checked per second.
+ * <p>
+ * The recording corpus falls back to synthetic tweets when data/TwitterCapture_1.jobj isn't there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dtwittermap.offline=true"})
+public class FilterBenchmark {
+    @Param({"recording", "synthetic"})
+    private String corpus;
+
+    @Param({"0", "3", "7", "8"})
+    private int query;
+
+    private Status[] tweets;
+    private Filter filter;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<Status> list = BenchData.corpus(corpus, 10000);
+        tweets = list.toArray(new Status[0]);
+        filter = Filter.parse(BenchData.QUERIES[query]);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        Status status = tweets[next];
+        next = next + 1 == tweets.length ? 0 : next + 1;
+        return filter.matches(status);
+    }
+}
@@ -0,0 +1,47 @@
+package filters.bench;
+
+import filters.Filter;
+import filters.Parser;
+import filters.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.bench.BenchData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to parse a query string into a Filter, averaged over the query strings in BenchData,
+ * from single words to nested boolean expressions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dtwittermap.offline=true"})
+public class ParserBenchmark {
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void parse(Blackhole bh) throws SyntaxError {
+        for (String query : BenchData.QUERIES) {
+            bh.consume(new Parser(query).parse());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void terms(Blackhole bh) {
+        for (String query : BenchData.QUERIES) {
+            bh.consume(Filter.parse(query).terms());
+        }
+    }
+}
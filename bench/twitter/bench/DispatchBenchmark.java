@@ -0,0 +1,108 @@
+package twitter.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import query.Query;
+import query.QueryRegistry;
+import twitter.TwitterSource;
+import twitter4j.Status;
+import ui.TweetMapViewer;
+import util.bench.BenchData;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of delivering a tweet to n active queries, as the application does, through a
+ * QueryRegistry: each query checks its filter and stages matches for the map. Scores are tweets delivered per second.
+ * <p>
+ * The map is never shown. Staged markers are added on the event dispatch thread as usual, and
+ * between iterations the benchmark waits for them and trims each query back to its limit, so the
+ * map doesn't grow without bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dtwittermap.offline=true"})
+public class DispatchBenchmark {
+    private static final Color[] COLORS = {Color.PINK, Color.CYAN, Color.ORANGE, Color.GREEN, Color.MAGENTA};
+
+    @Param({"1", "10", "100"})
+    private int queries;
+
+    private BenchSource source;
+    private TweetMapViewer map;
+    private final List<Query> active = new ArrayList<>();
+    private final QueryRegistry registry = new QueryRegistry();
+    private Status[] tweets;
+    private int next;
+
+    // A source that delivers whatever it is handed
+    private static class BenchSource extends TwitterSource {
+        BenchSource() {
+            doLogging = false;
+        }
+
+        @Override
+        protected void sync() {
+        }
+
+        void deliver(Status status) {
+            handleTweet(status);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        tweets = BenchData.corpus("recording", 10000).toArray(new Status[0]);
+        map = new TweetMapViewer();
+        source = new BenchSource();
+        source.addObserver(registry);
+        for (int i = 0; i < queries; i++) {
+            Query query = new Query(BenchData.QUERIES[i % BenchData.QUERIES.length], COLORS[i % COLORS.length], map);
+            query.setRetention(10000, 0);
+            active.add(query);
+            registry.add(query);
+        }
+    }
+
+    @Benchmark
+    public void deliver() {
+        source.deliver(tweets[next]);
+        next = next + 1 == tweets.length ? 0 : next + 1;
+    }
+
+    @TearDown(Level.Iteration)
+    public void trim() throws InterruptedException, InvocationTargetException {
+        while (map.getMarkerBatcher().getPendingCount() > 0) {
+            Thread.sleep(10);
+        }
+        SwingUtilities.invokeAndWait(() -> active.forEach(Query::evictExpired));
+    }
+
+    @TearDown
+    public void teardown() {
+        for (Query query : active) {
+            registry.remove(query);
+            query.terminate();
+        }
+        active.clear();
+    }
+}
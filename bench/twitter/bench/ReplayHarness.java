@@ -0,0 +1,290 @@
+package twitter.bench;
+
+import org.openstreetmap.gui.jmapviewer.Layer;
+import metrics.LatencyTracer;
+import query.NullMarkerSink;
+import query.Query;
+import query.QueryRegistry;
+import twitter.TweetRecord;
+import twitter.TwitterSource;
+import twitter4j.Status;
+import util.ConcurrentHistogram;
+import util.Histogram;
+import util.ObjectSource;
+import util.bench.BenchData;
+
+import java.awt.*;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Replays a recording as fast as possible through the ingestion path, without a map: decoding,
+ * TwitterSource dispatch, each query's filter and the building of each matching tweet's record.
+ * Matches go to a sink that only notes when they arrive.
+ * <p>
+ * Reports tweets per second, the allocation rate of the replaying and shard threads, garbage collections
+ * and latency percentiles for each stage:
+ * <ul>
+ * <li>decode: reading one tweet from the recording</li>
+ * <li>dispatch: delivering one tweet to every query, or with shards, handing it to its shard</li>
+ * <li>staged: from the start of a tweet's dispatch until a query hands it to the sink</li>
+ * </ul>
+ * Usage: java -Djava.awt.headless=true twitter.bench.ReplayHarness [-passes n] [-warmup n]
+ * [-shards n] [-preload] [-minRate tweetsPerSecond] [recording [query...]]
+ * <p>
+ * With -shards, dispatch is spread over that many threads; with -preload the recording is decoded
+ * once up front rather than on every pass, so decoding on the replaying thread doesn't limit how
+ * far the shards can scale.
+ * <p>
+ * The recording defaults to data/TwitterCapture_1.jobj, or synthetic tweets if it isn't there,
+ * and the queries to those in BenchData. Warm-up passes are replayed and discarded before the
+ * measured ones. With -minRate, the exit status is 1 if the measured throughput is lower, so the
+ * harness can gate changes to the ingestion path.
+ */
+public class ReplayHarness {
+    private static final Color[] COLORS = {Color.PINK, Color.CYAN, Color.ORANGE, Color.GREEN, Color.MAGENTA};
+
+    private final Histogram decode = new Histogram();
+    private final Histogram dispatch = new Histogram();
+    private final ConcurrentHistogram staged = new ConcurrentHistogram();
+    private final TimingSink sink = new TimingSink();
+    private final ReplaySource source = new ReplaySource();
+    private final List<Query> queries = new ArrayList<>();
+    // Passes each tweet to the queries, as in the application
+    private final QueryRegistry registry = new QueryRegistry();
+    private final String recording;
+    // The decoded recording, if it is preloaded
+    private List<Status> preloaded;
+
+    // A source that dispatches whatever it is handed
+    private static class ReplaySource extends TwitterSource {
+        ReplaySource() {
+            doLogging = false;
+        }
+
+        @Override
+        protected void sync() {
+        }
+
+        void deliver(Status status, long arrival) {
+            LatencyTracer.getInstance().resume(arrival);
+            handleTweet(status);
+        }
+    }
+
+    // Notes how long after the start of dispatch each match arrives, and how many arrive per layer;
+    // called from every shard at once
+    private class TimingSink extends NullMarkerSink {
+        final Map<Layer, LongAdder> matches = new ConcurrentHashMap<>();
+
+        @Override
+        public void stage(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live) {
+            staged.record(System.nanoTime() - LatencyTracer.getInstance().current());
+            matches.computeIfAbsent(layer, l -> new LongAdder()).increment();
+        }
+    }
+
+    public ReplayHarness(String recording, List<String> queryStrings) {
+        this.recording = recording;
+        for (int i = 0; i < queryStrings.size(); i++) {
+            Query query = new Query(queryStrings.get(i), COLORS[i % COLORS.length], sink);
+            queries.add(query);
+            registry.add(query);
+        }
+        source.addObserver(registry);
+    }
+
+    public void setShards(int n) {
+        source.setShards(n);
+    }
+
+    /**
+     * Decode the recording now, and replay it from memory from then on
+     */
+    public void preload() {
+        preloaded = new ArrayList<>();
+        ObjectSource in = new ObjectSource(recording);
+        while (true) {
+            Object time = in.readObject();
+            Object status = time == null ? null : in.readObject();
+            if (status == null) break;
+            if (((Status) status).getPlace() != null) {
+                preloaded.add((Status) status);
+            }
+        }
+        in.close();
+    }
+
+    /**
+     * Replay the whole recording once, returning when every tweet has been dispatched
+     *
+     * @return the number of tweets dispatched
+     */
+    public long replay() throws InterruptedException {
+        long n = preloaded != null ? replayPreloaded() : replayRecording();
+        source.awaitDispatched();
+        return n;
+    }
+
+    private long replayPreloaded() {
+        for (Status status : preloaded) {
+            long t0 = System.nanoTime();
+            source.deliver(status, t0);
+            dispatch.record(System.nanoTime() - t0);
+        }
+        return preloaded.size();
+    }
+
+    private long replayRecording() {
+        ObjectSource in = new ObjectSource(recording);
+        long n = 0;
+        while (true) {
+            long t0 = System.nanoTime();
+            Object time = in.readObject();
+            Object status = time == null ? null : in.readObject();
+            long t1 = System.nanoTime();
+            if (status == null) break;
+            decode.record(t1 - t0);
+            // Like PlaybackTwitterSource, only tweets with a place are dispatched
+            if (((Status) status).getPlace() == null) continue;
+            source.deliver((Status) status, t1);
+            dispatch.record(System.nanoTime() - t1);
+            n++;
+        }
+        in.close();
+        return n;
+    }
+
+    public void reset() {
+        decode.reset();
+        dispatch.reset();
+        staged.reset();
+        sink.matches.clear();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int passes = 3;
+        int warmup = 2;
+        int shards = 1;
+        boolean preload = false;
+        double minRate = 0;
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-passes":
+                    passes = Integer.parseInt(args[++i]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-shards":
+                    shards = Integer.parseInt(args[++i]);
+                    break;
+                case "-preload":
+                    preload = true;
+                    break;
+                case "-minRate":
+                    minRate = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    rest.add(args[i]);
+            }
+        }
+        String recording = rest.isEmpty() ? BenchData.RECORDING : rest.get(0);
+        if (!new File(recording).exists()) {
+            System.out.println(recording + " not found, replaying synthetic tweets");
+            recording = BenchData.writeRecording(BenchData.synthetic(50000, 42)).getPath();
+        }
+        List<String> queryStrings = rest.size() > 1 ? rest.subList(1, rest.size()) : Arrays.asList(BenchData.QUERIES);
+
+        ReplayHarness harness = new ReplayHarness(recording, queryStrings);
+        harness.setShards(shards);
+        if (preload) {
+            harness.preload();
+        }
+        for (int i = 0; i < warmup; i++) {
+            harness.replay();
+        }
+        harness.reset();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocated0 = allocatedBytes(threads);
+        long gcCount0 = gcCount();
+        long gcMillis0 = gcMillis();
+        long start = System.nanoTime();
+        long tweets = 0;
+        for (int i = 0; i < passes; i++) {
+            tweets += harness.replay();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes(threads) - allocated0;
+
+        double seconds = elapsed / 1e9;
+        double rate = tweets / seconds;
+        System.out.printf("%d queries, %d shards, %d passes of %s%n", queryStrings.size(), shards, passes, recording);
+        System.out.printf("%d tweets in %.2f s: %.0f tweets/s%n", tweets, seconds, rate);
+        if (allocated0 >= 0) {
+            System.out.printf("allocation: %.1f MB/s, %.0f bytes/tweet%n",
+                    allocated / seconds / 1e6, (double) allocated / Math.max(tweets, 1));
+        } else {
+            System.out.println("allocation: not available on this JVM");
+        }
+        System.out.printf("gc: %d collections, %d ms%n", gcCount() - gcCount0, gcMillis() - gcMillis0);
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s  (microseconds)%n",
+                "stage", "count", "p50", "p90", "p99", "p99.9", "max");
+        print("decode", harness.decode);
+        print("dispatch", harness.dispatch);
+        print("staged", harness.staged.snapshot());
+        for (Query query : harness.queries) {
+            LongAdder n = harness.sink.matches.get(query.getLayer());
+            System.out.printf("%10d matches: %s%n", n == null ? 0 : n.sum(), query.getQueryString());
+        }
+        if (rate < minRate) {
+            System.out.printf("FAIL: %.0f tweets/s is below the minimum of %.0f%n", rate, minRate);
+            System.exit(1);
+        }
+    }
+
+    private static void print(String stage, Histogram h) {
+        System.out.printf("%-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", stage, h.getCount(),
+                h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                h.getValueAtPercentile(99) / 1e3, h.getValueAtPercentile(99.9) / 1e3, h.getMax() / 1e3);
+    }
+
+    // Bytes allocated so far by the live threads, including the shards, or -1 if the JVM can't tell
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long n = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            n += Math.max(bytes, 0);
+        }
+        return n;
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(gc.getCollectionCount(), 0);
+        }
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(gc.getCollectionTime(), 0);
+        }
+        return n;
+    }
+}
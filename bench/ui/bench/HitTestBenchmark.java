@@ -0,0 +1,76 @@
+package ui.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+import org.openstreetmap.gui.jmapviewer.Layer;
+import org.openstreetmap.gui.jmapviewer.interfaces.MapMarker;
+import twitter.TweetRecord;
+import twitter4j.Status;
+import ui.TweetMapViewer;
+import util.bench.BenchData;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to find the markers under the mouse pointer, as the map's tooltip does on every mouse
+ * move, with 1,000 to 100,000 tweets on the map. The pointer positions are tweet locations, so
+ * most lookups find something.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dtwittermap.offline=true"})
+public class HitTestBenchmark {
+    // Metres per pixel at zoom 6 near the equator
+    private static final double PIXEL_WIDTH = 2446;
+
+    @Param({"1000", "10000", "100000"})
+    private int tweets;
+
+    private TweetMapViewer map;
+    private Coordinate[] probes;
+    private int next;
+
+    @Setup
+    public void setup() throws InterruptedException, InvocationTargetException {
+        List<Status> corpus = BenchData.synthetic(tweets, 42);
+        map = new TweetMapViewer();
+        Layer layer = new Layer("bench");
+        SwingUtilities.invokeAndWait(() -> {
+            for (Status status : corpus) {
+                TweetRecord tweet = TweetRecord.of(status);
+                map.addTweet(layer, Color.PINK, tweet, map.getAvatars().idFor(tweet.getMiniImageUrl()));
+            }
+        });
+        Random random = new Random(7);
+        probes = new Coordinate[1024];
+        for (int i = 0; i < probes.length; i++) {
+            TweetRecord tweet = TweetRecord.of(corpus.get(random.nextInt(corpus.size())));
+            probes[i] = new Coordinate(tweet.getLat() + 0.01, tweet.getLon() - 0.01);
+        }
+    }
+
+    @Benchmark
+    public List<MapMarker> markersCovering() {
+        Coordinate probe = probes[next];
+        next = (next + 1) & (probes.length - 1);
+        return map.getMarkersCovering(probe, PIXEL_WIDTH);
+    }
+}
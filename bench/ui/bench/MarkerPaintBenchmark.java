@@ -0,0 +1,107 @@
+package ui.bench;
+
+import org.openstreetmap.gui.jmapviewer.Layer;
+import twitter.TweetRecord;
+import ui.MapMarkerTweet;
+import ui.TweetMapViewer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Measures the time to paint a frame of 10,000 tweet markers, comparing the original approach
+ * (scaling the full size avatar and resetting eight rendering hints for every marker) with
+ * pre-scaled, bordered thumbnails and rendering hints set once per frame.
+ * <p>
+ * Runs headless: java -Djava.awt.headless=true ui.bench.MarkerPaintBenchmark [markers] [frames]
+ */
+public class MarkerPaintBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int IMAGE_SIZE = 24;
+    private static final int BORDER = 4;
+
+    public static void main(String[] args) {
+        int nMarkers = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int nFrames = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        Random random = new Random(42);
+        BufferedImage avatar = avatar();
+        Color[] colors = {Color.PINK, Color.CYAN, Color.ORANGE, Color.GREEN};
+        Layer layer = new Layer("bench");
+        TweetRecord record = new TweetRecord(0, "bench", 0, 0, null, null);
+        Point[] positions = new Point[nMarkers];
+        Color[] markerColors = new Color[nMarkers];
+        MapMarkerTweet[] markers = new MapMarkerTweet[nMarkers];
+        for (int i = 0; i < nMarkers; i++) {
+            positions[i] = new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+            markerColors[i] = colors[i % colors.length];
+            markers[i] = new MapMarkerTweet(layer, record, avatar, markerColors[i]);
+        }
+        BufferedImage frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+        // Warm up both paths before measuring
+        for (int i = 0; i < 5; i++) {
+            paintBefore(frame, avatar, positions, markerColors);
+            paintAfter(frame, markers, positions);
+        }
+        long before = 0;
+        long after = 0;
+        for (int i = 0; i < nFrames; i++) {
+            long t0 = System.nanoTime();
+            paintBefore(frame, avatar, positions, markerColors);
+            long t1 = System.nanoTime();
+            paintAfter(frame, markers, positions);
+            long t2 = System.nanoTime();
+            before += t1 - t0;
+            after += t2 - t1;
+        }
+        System.out.printf("%d markers, %d frames%n", nMarkers, nFrames);
+        System.out.printf("before: %.2f ms/frame%n", before / 1e6 / nFrames);
+        System.out.printf("after:  %.2f ms/frame%n", after / 1e6 / nFrames);
+    }
+
+    // The original MapMarkerTweet painting, reproduced for comparison
+    private static void paintBefore(BufferedImage frame, BufferedImage avatar, Point[] positions, Color[] colors) {
+        Graphics2D g = frame.createGraphics();
+        for (int i = 0; i < positions.length; i++) {
+            Point position = positions[i];
+            g.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
+            g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            int offset = IMAGE_SIZE / 2;
+            Color oldColor = g.getColor();
+            g.setColor(colors[i]);
+            g.fillRect(position.x - offset - BORDER, position.y - offset - BORDER,
+                    IMAGE_SIZE + 2 * BORDER, IMAGE_SIZE + 2 * BORDER);
+            g.setColor(oldColor);
+            g.drawImage(avatar, position.x - offset, position.y - offset, IMAGE_SIZE, IMAGE_SIZE, null);
+        }
+        g.dispose();
+    }
+
+    private static void paintAfter(BufferedImage frame, MapMarkerTweet[] markers, Point[] positions) {
+        Graphics2D g = frame.createGraphics();
+        TweetMapViewer.applyRenderingHints(g);
+        for (int i = 0; i < markers.length; i++) {
+            markers[i].paint(g, positions[i], 0);
+        }
+        g.dispose();
+    }
+
+    // A 48x48 avatar with some detail, the size of a Twitter "normal" profile image
+    private static BufferedImage avatar() {
+        BufferedImage img = new BufferedImage(48, 48, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLUE, 48, 48, Color.YELLOW));
+        g.fillOval(0, 0, 48, 48);
+        g.dispose();
+        return img;
+    }
+}
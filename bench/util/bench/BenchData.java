@@ -0,0 +1,156 @@
+package util.bench;
+
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+import util.ObjectSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Tweets and queries for the benchmarks, without touching the network.
+ * <p>
+ * Tweets come either from a recording (pairs of receive time and Status, as written by the
+ * capture tool and read by PlaybackTwitterSource) or are made up from a fixed vocabulary, with
+ * places scattered over the continents, so results are repeatable.
+ */
+public class BenchData {
+    public static final String RECORDING = "data/TwitterCapture_1.jobj";
+
+    private static final String[] WORDS = {
+            "the", "a", "and", "to", "of", "in", "is", "for", "on", "with", "this", "that", "my", "you",
+            "food", "coffee", "lunch", "pizza", "trump", "election", "vote", "rain", "sun", "snow",
+            "game", "win", "goal", "music", "love", "happy", "work", "monday", "weekend", "party",
+            "red", "blue", "green", "purple", "yellow", "black", "morning", "night", "city", "beach"
+    };
+
+    // Realistic query strings, from single words to nested boolean expressions
+    public static final String[] QUERIES = {
+            "food",
+            "trump",
+            "coffee or tea",
+            "love and not monday",
+            "pizza and (lunch or night)",
+            "rain or snow or sun",
+            "not the",
+            "trump and (evil or blue) and red or green and not not purple",
+            "(game or goal) and win and not (rain or snow)",
+            "happy and (weekend or party) or music and not work"
+    };
+
+    // Rough centres of populated areas, so synthetic places cluster the way real ones do
+    private static final double[][] CENTRES = {
+            {40.7, -74.0}, {34.0, -118.2}, {49.3, -123.1}, {51.5, -0.1}, {48.9, 2.35},
+            {35.7, 139.7}, {-33.9, 151.2}, {19.4, -99.1}, {-23.5, -46.6}, {28.6, 77.2}
+    };
+
+    /**
+     * Read up to max tweets with places from a recording
+     *
+     * @return the tweets, or an empty list if the recording doesn't exist
+     */
+    public static List<Status> loadRecording(String path, int max) {
+        List<Status> ans = new ArrayList<>();
+        if (!new File(path).exists()) {
+            return ans;
+        }
+        ObjectSource source = new ObjectSource(path);
+        while (ans.size() < max) {
+            Object time = source.readObject();
+            if (time == null) break;
+            Object status = source.readObject();
+            if (status == null) break;
+            if (((Status) status).getPlace() != null) {
+                ans.add((Status) status);
+            }
+        }
+        source.close();
+        return ans;
+    }
+
+    /**
+     * Make up n tweets of 5 to 20 words, each from one of a few hundred places and a few thousand users
+     */
+    public static List<Status> synthetic(int n, long seed) {
+        Random random = new Random(seed);
+        List<Status> ans = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 5 + random.nextInt(16);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) text.append(' ');
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            int place = random.nextInt(300);
+            int user = random.nextInt(5000);
+            try {
+                ans.add(TwitterObjectFactory.createStatus(json(i, text.toString(), user, place)));
+            } catch (TwitterException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * The tweets from the recording, or synthetic ones if it isn't there
+     */
+    public static List<Status> corpus(String source, int n) {
+        if (source.equals("recording")) {
+            List<Status> recorded = loadRecording(RECORDING, n);
+            if (!recorded.isEmpty()) {
+                return recorded;
+            }
+        }
+        return synthetic(n, 42);
+    }
+
+    /**
+     * Write tweets to a temporary file in the recording format, one second apart
+     */
+    public static File writeRecording(List<Status> tweets) {
+        try {
+            File file = File.createTempFile("bench-recording", ".jobj");
+            file.deleteOnExit();
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+                long time = 0;
+                for (Status status : tweets) {
+                    out.writeObject(time);
+                    out.writeObject(status);
+                    time += 1000;
+                }
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The JSON Twitter's streaming API would send for such a tweet
+    private static String json(long id, String text, int user, int place) {
+        double[] centre = CENTRES[place % CENTRES.length];
+        Random random = new Random(place);
+        double lat = centre[0] + 4 * (random.nextDouble() - 0.5);
+        double lon = centre[1] + 4 * (random.nextDouble() - 0.5);
+        double size = 0.05 + 0.2 * random.nextDouble();
+        String image = "http://pbs.twimg.com/profile_images/" + user + "/avatar_normal.jpg";
+        return String.format(Locale.ROOT,
+                "{\"id\":%d,\"id_str\":\"%d\",\"text\":\"%s\",\"created_at\":\"Mon Oct 19 12:00:00 +0000 2026\"," +
+                        "\"user\":{\"id\":%d,\"name\":\"user%d\",\"screen_name\":\"user%d\"," +
+                        "\"profile_image_url\":\"%s\",\"profile_image_url_https\":\"%s\"}," +
+                        "\"place\":{\"id\":\"place%d\",\"name\":\"Place %d\",\"full_name\":\"Place %d\"," +
+                        "\"country\":\"Somewhere\",\"country_code\":\"SW\",\"place_type\":\"city\"," +
+                        "\"bounding_box\":{\"type\":\"Polygon\",\"coordinates\":" +
+                        "[[[%f,%f],[%f,%f],[%f,%f],[%f,%f]]]}}}",
+                id, id, text, user, user, user, image, image.replace("http:", "https:"), place, place, place,
+                lon - size, lat - size, lon + size, lat - size, lon + size, lat + size, lon - size, lat + size);
+    }
+}
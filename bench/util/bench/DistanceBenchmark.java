@@ -0,0 +1,86 @@
+package util.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+import util.SphericalGeometry;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the distance kernels in SphericalGeometry, measuring from one point to n others:
+ * the original per-pair haversine on Coordinates, the exact batch kernel, the approximate batch
+ * kernel and the approximate threshold check. Scores are in operations (whole batches) per second.
+ * <p>
+ * Run from the bench module's classpath: java org.openjdk.jmh.Main util.bench.DistanceBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+    @Param({"1024", "65536"})
+    private int n;
+
+    private final double lat = 49.26;
+    private final double lon = -123.25;
+    private Coordinate origin;
+    private Coordinate[] coordinates;
+    private double[] lats;
+    private double[] lons;
+    private double[] out;
+    private boolean[] within;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        origin = new Coordinate(lat, lon);
+        coordinates = new Coordinate[n];
+        lats = new double[n];
+        lons = new double[n];
+        out = new double[n];
+        within = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = lat + 2 * (random.nextDouble() - 0.5);
+            lons[i] = lon + 3 * (random.nextDouble() - 0.5);
+            coordinates[i] = new Coordinate(lats[i], lons[i]);
+        }
+    }
+
+    @Benchmark
+    public void perPairCoordinates(Blackhole bh) {
+        for (int i = 0; i < n; i++) {
+            bh.consume(SphericalGeometry.distanceBetween(origin, coordinates[i]));
+        }
+    }
+
+    @Benchmark
+    public double[] batchExact() {
+        SphericalGeometry.distances(lat, lon, lats, lons, out, n);
+        return out;
+    }
+
+    @Benchmark
+    public double[] batchApprox() {
+        SphericalGeometry.approxDistances(lat, lon, lats, lons, out, n);
+        return out;
+    }
+
+    @Benchmark
+    public int batchApproxWithin() {
+        return SphericalGeometry.approxWithin(lat, lon, lats, lons, 50000, within, n);
+    }
+}
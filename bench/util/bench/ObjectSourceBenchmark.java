@@ -0,0 +1,60 @@
+package util.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.ObjectSource;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to decode a recording with ObjectSource, as PlaybackTwitterSource does, reported per tweet.
+ * <p>
+ * Decodes the first TWEETS tweets of data/TwitterCapture_1.jobj, or of a recording of synthetic
+ * tweets written at setup when that file isn't there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dtwittermap.offline=true"})
+public class ObjectSourceBenchmark {
+    private static final int TWEETS = 2000;
+
+    private String path;
+
+    @Setup
+    public void setup() {
+        File recording = new File(BenchData.RECORDING);
+        if (recording.exists()) {
+            path = recording.getPath();
+        } else {
+            path = BenchData.writeRecording(BenchData.synthetic(TWEETS, 42)).getPath();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void decode(Blackhole bh) {
+        ObjectSource source = new ObjectSource(path);
+        for (int i = 0; i < TWEETS; i++) {
+            Object time = source.readObject();
+            Object status = source.readObject();
+            if (status == null) break;
+            bh.consume(time);
+            bh.consume(status);
+        }
+        source.close();
+    }
+}
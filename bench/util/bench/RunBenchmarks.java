@@ -0,0 +1,36 @@
+package util.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Run the benchmark suite headless and offline, writing the results as JSON to
+ * out/bench/jmh-results.json so runs can be compared.
+ * <p>
+ * With no arguments every benchmark in the bench module is run; otherwise each argument is a
+ * regular expression selecting benchmarks, e.g. java util.bench.RunBenchmarks Filter Dispatch
+ */
+public class RunBenchmarks {
+    public static final String RESULTS = "out/bench/jmh-results.json";
+
+    public static void main(String[] args) throws RunnerException {
+        new File(RESULTS).getParentFile().mkdirs();
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .resultFormat(ResultFormatType.JSON)
+                .result(RESULTS)
+                .jvmArgsAppend("-Djava.awt.headless=true", "-Dtwittermap.offline=true")
+                .shouldFailOnError(true);
+        if (args.length == 0) {
+            options.include("\\.bench\\.");
+        }
+        for (String pattern : args) {
+            options.include(pattern);
+        }
+        new Runner(options.build()).run();
+    }
+}
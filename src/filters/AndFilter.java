@@ -19,6 +19,11 @@ public class AndFilter implements Filter {
         return left.matches(s) && right.matches(s) ;
     }
 
+    @Override
+    public PostingList postings(PostingIndex index) {
+        return left.postings(index).and(right.postings(index));
+    }
+
     @Override
     public List<String> terms() {
         List<String> result = new ArrayList<>() ;
@@ -15,13 +15,19 @@ public class BasicFilter implements Filter {
 
     public BasicFilter(String word) {
         this.word = word;
-        pattern = Pattern.compile("(?i).*" + Pattern.quote(word) + ".*");
+        // Found anywhere in the text, even across line breaks, so it agrees with PostingIndex.lookup
+        pattern = Pattern.compile(Pattern.quote(word), Pattern.CASE_INSENSITIVE);
     }
 
     @Override
     public boolean matches(Status s) {
         String text = s.getText();
-        return pattern.matcher(text).matches();
+        return pattern.matcher(text).find();
+    }
+
+    @Override
+    public PostingList postings(PostingIndex index) {
+        return index.lookup(word);
     }
 
     @Override
@@ -38,4 +38,11 @@ public interface Filter {
      * @return      a list of terms mentioned in this filter
      */
     List<String> terms();
+
+    /**
+     * Evaluate this filter over an inverted index rather than a single tweet.
+     * @param index     the index to evaluate against
+     * @return          the offsets of the indexed records that match this filter
+     */
+    PostingList postings(PostingIndex index);
 }
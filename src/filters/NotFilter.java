@@ -24,6 +24,11 @@ public class NotFilter implements Filter {
         return !child.matches(s);
     }
 
+    @Override
+    public PostingList postings(PostingIndex index) {
+        return index.all().andNot(child.postings(index));
+    }
+
     @Override
     public List<String> terms() {
         return child.terms();
@@ -20,6 +20,11 @@ public class OrFilter implements Filter {
         return left.matches(s) || right.matches(s);
     }
 
+    @Override
+    public PostingList postings(PostingIndex index) {
+        return left.postings(index).or(right.postings(index));
+    }
+
     @Override
     public List<String> terms() {
         List<String> result = new ArrayList<>();
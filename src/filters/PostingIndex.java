@@ -0,0 +1,19 @@
+package filters;
+
+/**
+ * An inverted index over tweet text, against which a Filter can be evaluated
+ * without looking at the tweets themselves.
+ */
+public interface PostingIndex {
+    /**
+     * Returns the offsets of all records whose text contains the given word, ignoring case
+     * @param word  the word to look for
+     * @return      the matching record offsets
+     */
+    PostingList lookup(String word);
+
+    /**
+     * @return the offsets of every record in the index
+     */
+    PostingList all();
+}
@@ -0,0 +1,220 @@
+package filters;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable, sorted set of record offsets, as stored for each term of an inverted index.
+ * <p>
+ * The boolean filters are evaluated over an index by combining posting lists with
+ * and (intersection), or (union) and andNot (difference). Many lists are best combined with
+ * union, which merges them all at once rather than one pair at a time.
+ */
+public class PostingList {
+    public static final PostingList EMPTY = new PostingList(new long[0], 0);
+
+    private final long[] offsets;
+    private final int size;
+
+    private PostingList(long[] offsets, int size) {
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    /**
+     * @param offsets   record offsets in strictly increasing order; the array is not copied
+     * @param size      how many entries of offsets are in use
+     */
+    public static PostingList ofSorted(long[] offsets, int size) {
+        return size == 0 ? EMPTY : new PostingList(offsets, size);
+    }
+
+    /**
+     * @param offsets   record offsets in any order, possibly with duplicates
+     */
+    public static PostingList of(long... offsets) {
+        long[] sorted = offsets.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[n - 1] != sorted[i]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return ofSorted(sorted, n);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(int i) {
+        return offsets[i];
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(offsets, size);
+    }
+
+    public boolean contains(long offset) {
+        return Arrays.binarySearch(offsets, 0, size, offset) >= 0;
+    }
+
+    /**
+     * @return the offsets in both this list and the other
+     */
+    public PostingList and(PostingList other) {
+        long[] ans = new long[Math.min(size, other.size)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            long a = offsets[i];
+            long b = other.offsets[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                ans[n++] = a;
+                i++;
+                j++;
+            }
+        }
+        return ofSorted(ans, n);
+    }
+
+    /**
+     * @return the offsets in either this list or the other
+     */
+    public PostingList or(PostingList other) {
+        if (other.size == 0) return this;
+        if (size == 0) return other;
+        long[] ans = new long[size + other.size];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            long a = offsets[i];
+            long b = other.offsets[j];
+            if (a < b) {
+                ans[n++] = a;
+                i++;
+            } else if (a > b) {
+                ans[n++] = b;
+                j++;
+            } else {
+                ans[n++] = a;
+                i++;
+                j++;
+            }
+        }
+        while (i < size) ans[n++] = offsets[i++];
+        while (j < other.size) ans[n++] = other.offsets[j++];
+        return ofSorted(ans, n);
+    }
+
+    /**
+     * @return the offsets in any of the lists, merged in a single pass however many there are
+     */
+    public static PostingList union(List<PostingList> lists) {
+        int k = 0;
+        int total = 0;
+        PostingList[] heads = new PostingList[lists.size()];
+        for (PostingList list : lists) {
+            if (list.size > 0) {
+                heads[k++] = list;
+                total += list.size;
+            }
+        }
+        if (k <= 1) {
+            return k == 0 ? EMPTY : heads[0];
+        }
+        // A binary min-heap of the lists, ordered by the next offset of each
+        int[] next = new int[k];
+        int[] heap = new int[k];
+        for (int i = 0; i < k; i++) {
+            heap[i] = i;
+        }
+        for (int i = k / 2 - 1; i >= 0; i--) {
+            siftDown(heap, k, i, heads, next);
+        }
+        long[] ans = new long[total];
+        int n = 0;
+        int live = k;
+        while (live > 0) {
+            int top = heap[0];
+            long offset = heads[top].offsets[next[top]++];
+            if (n == 0 || ans[n - 1] != offset) {
+                ans[n++] = offset;
+            }
+            if (next[top] == heads[top].size) {
+                heap[0] = heap[--live];
+            }
+            siftDown(heap, live, 0, heads, next);
+        }
+        return ofSorted(ans, n);
+    }
+
+    private static void siftDown(int[] heap, int n, int i, PostingList[] heads, int[] next) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < n && head(heap[left], heads, next) < head(heap[smallest], heads, next)) {
+                smallest = left;
+            }
+            if (right < n && head(heap[right], heads, next) < head(heap[smallest], heads, next)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            int t = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = t;
+            i = smallest;
+        }
+    }
+
+    private static long head(int list, PostingList[] heads, int[] next) {
+        return heads[list].offsets[next[list]];
+    }
+
+    /**
+     * @return the offsets in this list that are not in the other
+     */
+    public PostingList andNot(PostingList other) {
+        if (other.size == 0) return this;
+        long[] ans = new long[size];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            long a = offsets[i];
+            while (j < other.size && other.offsets[j] < a) {
+                j++;
+            }
+            if (j == other.size || other.offsets[j] != a) {
+                ans[n++] = a;
+            }
+        }
+        return ofSorted(ans, n);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PostingList)) return false;
+        PostingList other = (PostingList) o;
+        return Arrays.equals(toArray(), other.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
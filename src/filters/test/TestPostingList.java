@@ -0,0 +1,47 @@
+package filters.test;
+
+import filters.PostingList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the set operations on posting lists
+ */
+public class TestPostingList {
+    @Test
+    public void testOf() {
+        assertTrue(PostingList.of(5, 1, 3, 1).equals(PostingList.of(1, 3, 5)));
+        assertTrue(PostingList.of().size() == 0);
+    }
+
+    @Test
+    public void testAnd() {
+        PostingList x = PostingList.of(1, 3, 5, 7, 9).and(PostingList.of(2, 3, 4, 9, 10));
+        assertTrue(x.equals(PostingList.of(3, 9)), "Expected [3, 9], was " + x);
+        assertTrue(PostingList.of(1, 2).and(PostingList.EMPTY).size() == 0);
+    }
+
+    @Test
+    public void testOr() {
+        PostingList x = PostingList.of(1, 3, 5).or(PostingList.of(2, 3, 6));
+        assertTrue(x.equals(PostingList.of(1, 2, 3, 5, 6)), "Expected [1, 2, 3, 5, 6], was " + x);
+    }
+
+    @Test
+    public void testAndNot() {
+        PostingList x = PostingList.of(1, 2, 3, 4, 5).andNot(PostingList.of(0, 2, 4, 6));
+        assertTrue(x.equals(PostingList.of(1, 3, 5)), "Expected [1, 3, 5], was " + x);
+    }
+
+    @Test
+    public void testUnion() {
+        PostingList x = PostingList.union(Arrays.asList(PostingList.of(1, 4, 7), PostingList.EMPTY,
+                PostingList.of(2, 4, 8), PostingList.of(3, 7, 9), PostingList.of(0)));
+        assertTrue(x.equals(PostingList.of(0, 1, 2, 3, 4, 7, 8, 9)), "Expected [0, 1, 2, 3, 4, 7, 8, 9], was " + x);
+        assertTrue(PostingList.union(new ArrayList<>()).size() == 0);
+    }
+}
@@ -0,0 +1,162 @@
+package metrics;
+
+import util.ConcurrentHistogram;
+import util.Histogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how stale the map is: how long after a tweet arrives it reaches each stage on its way
+ * to the screen.
+ * <p>
+ * A source stamps each tweet with System.nanoTime() as it arrives and clears the stamp once the
+ * tweet has been dispatched. The stamp is kept in a thread local, since the observers run on the
+ * source's thread; from MarkerBatcher on, it travels with the staged tweet. Each stage records the
+ * time since the stamp in a ConcurrentHistogram. Tweets without a stamp, such as those replayed by
+ * a backfill, aren't traced.
+ * <p>
+ * Percentiles of each stage are published as metrics in the twittermap:type=Latency group, whose
+ * dump operation appends them to the file named by the system property twittermap.latencyLog
+ * (latency.log by default), and whose reset operation starts the histograms afresh.
+ */
+public class LatencyTracer {
+    /**
+     * The stages of a tweet's journey, each measured from its arrival
+     */
+    public enum Stage {
+        // Delivered to the queries
+        DISPATCH,
+        // Matched by the first query whose filter matches it
+        MATCH,
+        // Its marker staged for the map
+        MARKER,
+        // Added to the map on the event dispatch thread
+        INSERT,
+        // Its marker first painted
+        PAINT
+    }
+
+    private static final String LOG = System.getProperty("twittermap.latencyLog", "latency.log");
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static LatencyTracer theInstance = new LatencyTracer();
+
+    // The arrival time of the tweet being dispatched on this thread, or 0
+    private final ThreadLocal<long[]> stamp = ThreadLocal.withInitial(() -> new long[1]);
+    private final ConcurrentHistogram[] histograms = new ConcurrentHistogram[Stage.values().length];
+
+    public static LatencyTracer getInstance() {
+        return theInstance;
+    }
+
+    private LatencyTracer() {
+        MetricGroup metrics = Metrics.getInstance().group("Latency");
+        for (Stage stage : Stage.values()) {
+            ConcurrentHistogram histogram = new ConcurrentHistogram();
+            histograms[stage.ordinal()] = histogram;
+            String name = stage.name().toLowerCase(Locale.ROOT);
+            metrics.gauge(name + ".count", () -> histogram.snapshot().getCount());
+            for (double p : PERCENTILES) {
+                metrics.gauge(name + ".p" + format(p) + "Nanos", () -> histogram.snapshot().getValueAtPercentile(p));
+            }
+            metrics.gauge(name + ".maxNanos", () -> histogram.snapshot().getMax());
+        }
+        metrics.operation("dump", () -> {
+            try {
+                dump(Paths.get(LOG));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        metrics.operation("reset", this::reset);
+    }
+
+    /**
+     * Stamp the tweet about to be dispatched on this thread as arriving now
+     */
+    public void stamp() {
+        stamp.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * Stamp the tweet about to be dispatched on this thread with an arrival time taken on another
+     * thread, such as the one that handed it over
+     *
+     * @param arrival   the stamp, or 0 if the tweet isn't traced
+     */
+    public void resume(long arrival) {
+        stamp.get()[0] = arrival;
+    }
+
+    /**
+     * Forget this thread's stamp once its tweet has been dispatched
+     */
+    public void clear() {
+        stamp.get()[0] = 0;
+    }
+
+    /**
+     * @return the arrival time of the tweet being dispatched on this thread, or 0 if it isn't traced
+     */
+    public long current() {
+        return stamp.get()[0];
+    }
+
+    /**
+     * Record that a tweet has reached a stage
+     *
+     * @param arrival   the tweet's stamp; nothing is recorded if it is 0
+     */
+    public void record(Stage stage, long arrival) {
+        if (arrival != 0) {
+            histograms[stage.ordinal()].record(System.nanoTime() - arrival);
+        }
+    }
+
+    /**
+     * @return the latencies of a stage so far, in nanoseconds
+     */
+    public Histogram snapshot(Stage stage) {
+        return histograms[stage.ordinal()].snapshot();
+    }
+
+    public void reset() {
+        for (ConcurrentHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Append the count and percentiles of each stage, in microseconds, to a file
+     */
+    public void dump(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String now = Instant.now().toString();
+        for (Stage stage : Stage.values()) {
+            Histogram h = snapshot(stage);
+            StringBuilder line = new StringBuilder();
+            line.append(now).append(" stage=").append(stage.name().toLowerCase(Locale.ROOT));
+            line.append(" count=").append(h.getCount());
+            for (double p : PERCENTILES) {
+                line.append(String.format(Locale.ROOT, " p%s=%.1f", format(p), h.getValueAtPercentile(p) / 1e3));
+            }
+            line.append(String.format(Locale.ROOT, " max=%.1f us", h.getMax() / 1e3));
+            lines.add(line.toString());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // 50 as "50" and 99.9 as "999", for metric names
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile)
+                : String.valueOf(percentile).replace(".", "");
+    }
+}
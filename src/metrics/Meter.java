@@ -0,0 +1,41 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events, such as tweets received, and how many happened in the last second.
+ * <p>
+ * The count is striped over cells, so threads marking at once don't contend, and marking
+ * doesn't allocate. The rate is worked out once a second by Metrics rather than as events happen.
+ */
+public class Meter {
+    private final LongAdder count = new LongAdder();
+    // Only touched by the metrics ticker
+    private long lastCount;
+    private volatile double rate;
+
+    public void mark() {
+        count.increment();
+    }
+
+    public void mark(long n) {
+        count.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return events per second over the last tick
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    void tick(double seconds) {
+        long now = count.sum();
+        rate = (now - lastCount) / seconds;
+        lastCount = now;
+    }
+}
@@ -0,0 +1,143 @@
+package metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A named set of metrics, shown as one MBean whose read-only attributes are the metrics' values.
+ * <p>
+ * A meter called x appears as x.count and x.rate, a distribution as x.count, x.mean and x.max,
+ * and a gauge as x. Asking for a metric that already exists returns it, so code that shares a
+ * group can share its metrics. A group can also have operations, without parameters, that a JMX
+ * client can invoke.
+ */
+public class MetricGroup implements DynamicMBean {
+    private final ObjectName name;
+    private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+    private final Map<String, Supplier<Object>> attributes = new ConcurrentSkipListMap<>();
+    private final List<Meter> meters = new CopyOnWriteArrayList<>();
+    private final Map<String, Runnable> operations = new ConcurrentSkipListMap<>();
+
+    MetricGroup(ObjectName name) {
+        this.name = name;
+    }
+
+    public ObjectName getName() {
+        return name;
+    }
+
+    public Meter meter(String metric) {
+        return (Meter) metrics.computeIfAbsent(metric, m -> {
+            Meter meter = new Meter();
+            attributes.put(m + ".count", meter::getCount);
+            attributes.put(m + ".rate", meter::getRate);
+            meters.add(meter);
+            return meter;
+        });
+    }
+
+    public Distribution distribution(String metric) {
+        return (Distribution) metrics.computeIfAbsent(metric, m -> {
+            Distribution distribution = new Distribution();
+            attributes.put(m + ".count", distribution::getCount);
+            attributes.put(m + ".mean", distribution::getMean);
+            attributes.put(m + ".max", distribution::getMax);
+            return distribution;
+        });
+    }
+
+    /**
+     * Add a value that is read when it is asked for, replacing any gauge of the same name
+     */
+    public void gauge(String metric, LongSupplier value) {
+        metrics.put(metric, value);
+        attributes.put(metric, value::getAsLong);
+    }
+
+    /**
+     * Add an operation, replacing any of the same name
+     */
+    public void operation(String name, Runnable action) {
+        operations.put(name, action);
+    }
+
+    void tick(double seconds) {
+        for (Meter meter : meters) {
+            meter.tick(seconds);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> value = attributes.get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value.get();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList ans = new AttributeList();
+        for (String attribute : names) {
+            Supplier<Object> value = attributes.get(attribute);
+            if (value != null) {
+                ans.add(new Attribute(attribute, value.get()));
+            }
+        }
+        return ans;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList list) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) {
+        Runnable operation = operations.get(action);
+        if (operation == null || (params != null && params.length > 0)) {
+            throw new UnsupportedOperationException(action);
+        }
+        operation.run();
+        return null;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+        for (Map.Entry<String, Supplier<Object>> entry : attributes.entrySet()) {
+            Object value = entry.getValue().get();
+            String type = value instanceof Double ? Double.class.getName() : Long.class.getName();
+            infos.add(new MBeanAttributeInfo(entry.getKey(), type, entry.getKey(), true, false, false));
+        }
+        List<MBeanOperationInfo> ops = new ArrayList<>();
+        for (String operation : operations.keySet()) {
+            ops.add(new MBeanOperationInfo(operation, operation, new MBeanParameterInfo[0], "void",
+                    MBeanOperationInfo.ACTION));
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics: " + name,
+                infos.toArray(new MBeanAttributeInfo[0]), null, ops.toArray(new MBeanOperationInfo[0]),
+                new MBeanNotificationInfo[0]);
+    }
+}
@@ -0,0 +1,94 @@
+package metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The registry of the application's metrics, which are published over JMX under the twittermap
+ * domain, e.g. twittermap:type=Ingestion, so they can be watched with jconsole or any JMX client
+ * while the application runs.
+ * <p>
+ * Metrics are updated on the hot paths, so they are kept cheap enough to leave on: counters are
+ * striped LongAdders, updating one never allocates, and meters' rates are worked out once a second
+ * on a background thread.
+ */
+public class Metrics {
+    private static final String DOMAIN = "twittermap";
+    private static final long TICK_MILLIS = 1000;
+    private static Metrics theInstance = new Metrics();
+
+    private final Map<ObjectName, MetricGroup> groups = new ConcurrentHashMap<>();
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    public static Metrics getInstance() {
+        return theInstance;
+    }
+
+    private Metrics() {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the group of the given type, e.g. Ingestion, registering it if it is new
+     */
+    public MetricGroup group(String type) {
+        return register(DOMAIN + ":type=" + type);
+    }
+
+    /**
+     * @return the group of the given type and name, e.g. one query's metrics, registering it if it is new
+     */
+    public MetricGroup group(String type, String name) {
+        return register(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    private MetricGroup register(String objectName) {
+        ObjectName name;
+        try {
+            name = new ObjectName(objectName);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(objectName, e);
+        }
+        return groups.computeIfAbsent(name, n -> {
+            MetricGroup group = new MetricGroup(n);
+            try {
+                server.registerMBean(group, n);
+            } catch (JMException e) {
+                // The metrics still work, they just can't be seen over JMX
+                e.printStackTrace();
+            }
+            return group;
+        });
+    }
+
+    /**
+     * Drop a group that is no longer updated, such as that of a query that has been deleted
+     */
+    public void remove(MetricGroup group) {
+        if (groups.remove(group.getName(), group)) {
+            try {
+                server.unregisterMBean(group.getName());
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void tick() {
+        for (MetricGroup group : groups.values()) {
+            group.tick(TICK_MILLIS / 1000.0);
+        }
+    }
+}
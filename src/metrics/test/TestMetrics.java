@@ -0,0 +1,94 @@
+package metrics.test;
+
+import metrics.Distribution;
+import metrics.LatencyTracer;
+import metrics.LatencyTracer.Stage;
+import metrics.Meter;
+import metrics.MetricGroup;
+import metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that metrics count correctly from several threads and can be read and removed over JMX,
+ * and that latencies are traced only for stamped tweets
+ */
+public class TestMetrics {
+    @Test
+    public void testConcurrentCounts() throws InterruptedException {
+        MetricGroup group = Metrics.getInstance().group("Test", "counts");
+        Meter meter = group.meter("events");
+        Distribution distribution = group.distribution("sizes");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 1; j <= 10000; j++) {
+                    meter.mark();
+                    distribution.record(j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(meter.getCount() == 40000);
+        assertTrue(distribution.getCount() == 40000);
+        assertTrue(distribution.getMax() == 10000);
+        assertTrue(distribution.getMean() == 5000.5);
+        assertTrue(group.meter("events") == meter);
+        Metrics.getInstance().remove(group);
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        MetricGroup group = Metrics.getInstance().group("Test", "jmx \"quoted\"");
+        group.meter("events").mark(3);
+        group.gauge("depth", () -> 7);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = group.getName();
+        assertTrue(server.isRegistered(name));
+        assertTrue(((Long) server.getAttribute(name, "events.count")) == 3);
+        assertTrue(((Long) server.getAttribute(name, "depth")) == 7);
+        assertTrue(server.getMBeanInfo(name).getAttributes().length == 3);
+        Metrics.getInstance().remove(group);
+        assertTrue(!server.isRegistered(name));
+    }
+
+    @Test
+    public void testTracing() throws Exception {
+        LatencyTracer tracer = LatencyTracer.getInstance();
+        tracer.reset();
+        tracer.record(Stage.DISPATCH, tracer.current());
+        assertTrue(tracer.snapshot(Stage.DISPATCH).getCount() == 0);
+        tracer.stamp();
+        long arrival = tracer.current();
+        Thread.sleep(5);
+        tracer.record(Stage.DISPATCH, arrival);
+        tracer.clear();
+        assertTrue(tracer.current() == 0);
+        assertTrue(tracer.snapshot(Stage.DISPATCH).getCount() == 1);
+        assertTrue(tracer.snapshot(Stage.DISPATCH).getMin() >= 5000000);
+
+        File log = File.createTempFile("latency", ".log");
+        log.deleteOnExit();
+        tracer.dump(log.toPath());
+        List<String> lines = Files.readAllLines(log.toPath());
+        assertTrue(lines.size() == Stage.values().length);
+        assertTrue(lines.get(0).contains("stage=dispatch count=1"));
+
+        ObjectName name = new ObjectName("twittermap:type=Latency");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(((Long) server.getAttribute(name, "dispatch.count")) == 1);
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertTrue(tracer.snapshot(Stage.DISPATCH).getCount() == 0);
+    }
+}
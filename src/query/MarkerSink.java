@@ -0,0 +1,57 @@
+package query;
+
+import org.openstreetmap.gui.jmapviewer.Layer;
+import twitter.TweetRecord;
+import util.DensityGrid;
+
+import java.awt.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Where a query sends the tweets it matches. The map is the usual sink; NullMarkerSink drops
+ * everything, so queries can be run without a user interface.
+ */
+public interface MarkerSink {
+    /**
+     * @param url   the URL of an avatar
+     * @return the id by which stage refers to the avatar
+     */
+    int avatarFor(String url);
+
+    /**
+     * Stage a tweet to be added to a layer. May be called from any thread.
+     *
+     * @param layer     the layer to add it to
+     * @param color     the border colour of the layer's markers
+     * @param tweet     the tweet
+     * @param avatar    the id of the tweet's avatar, from avatarFor
+     * @param live      checked just before the tweet is added; if it returns false the tweet is dropped
+     */
+    void stage(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live);
+
+    /**
+     * Remove a layer's oldest tweets while there are more than maxSize of them or they were added
+     * before cutoff
+     *
+     * @return the number of tweets removed
+     */
+    int evictTweets(Layer layer, long cutoff, int maxSize);
+
+    /**
+     * Remove a layer and all of its tweets
+     */
+    void removeLayer(Layer layer);
+
+    /**
+     * @return the number of tweets in a layer
+     */
+    int getMarkerCount(Layer layer);
+
+    /**
+     * Show a layer as a heatmap of the given densities rather than as markers. The sink adds the
+     * layer's tweets to the densities, including any staged for it but not yet added.
+     *
+     * @param density   the densities to show, or null to go back to showing markers
+     */
+    void setHeatmap(Layer layer, DensityGrid density, Color color);
+}
@@ -0,0 +1,41 @@
+package query;
+
+import org.openstreetmap.gui.jmapviewer.Layer;
+import twitter.TweetRecord;
+import util.DensityGrid;
+
+import java.awt.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A sink that drops every tweet, for running queries headless, e.g. to measure the ingestion path
+ * without the map. Subclasses can override stage to count or time what arrives.
+ */
+public class NullMarkerSink implements MarkerSink {
+    @Override
+    public int avatarFor(String url) {
+        return 0;
+    }
+
+    @Override
+    public void stage(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live) {
+    }
+
+    @Override
+    public int evictTweets(Layer layer, long cutoff, int maxSize) {
+        return 0;
+    }
+
+    @Override
+    public void removeLayer(Layer layer) {
+    }
+
+    @Override
+    public int getMarkerCount(Layer layer) {
+        return 0;
+    }
+
+    @Override
+    public void setHeatmap(Layer layer, DensityGrid density, Color color) {
+    }
+}
@@ -1,26 +1,41 @@
 package query;
 
 import filters.Filter;
-import org.openstreetmap.gui.jmapviewer.JMapViewer;
+import metrics.Distribution;
+import metrics.Meter;
+import metrics.MetricGroup;
+import metrics.Metrics;
 import org.openstreetmap.gui.jmapviewer.Layer;
-import org.openstreetmap.gui.jmapviewer.interfaces.MapMarker;
+import store.TweetArchive;
+import store.TweetStore;
+import twitter.TweetRecord;
 import twitter4j.Status;
-import ui.MapMarkerTweet;
-import util.Util;
+import util.DensityGrid;
+import util.GeoBounds;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.HashSet;
+import java.io.IOException;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 /**
  * A query over the twitter stream.
+ * <p>
+ * A query keeps at most maxMarkers markers, none older than maxAgeMillis, so that a long-running
+ * session doesn't keep every matching tweet forever. The map keeps a layer's tweets in the order
+ * they were added, so expired ones come off the front; evictExpired removes them in one batch.
  */
 public class Query implements Observer {
-    // The getMap on which to display markers when the query matches
-    private final JMapViewer map;
+    // Default retention, overridable per query; a limit of 0 means unlimited
+    private static final int DEFAULT_MAX_MARKERS = Integer.getInteger("twittermap.maxMarkersPerQuery", 20000);
+    private static final long DEFAULT_MAX_AGE_MILLIS = Long.getLong("twittermap.markerMaxAgeMillis", 0);
+    // Numbers the queries, so two with the same query string still get separate metrics
+    private static final AtomicInteger serial = new AtomicInteger();
+    // Where to send matching tweets: usually the map on which to display markers
+    private final MarkerSink map;
     // Each query has its own "layer" so they can be turned on and off all at once
     private Layer layer;
     // The color of the outside area of the marker
@@ -32,7 +47,21 @@ public class Query implements Observer {
     // The checkBox in the UI corresponding to this query (so we can turn it on and off and delete it)
     private JCheckBox checkBox;
 
-    private final Set<MapMarker> markers = new HashSet<>();
+    private volatile int maxMarkers = DEFAULT_MAX_MARKERS;
+    private volatile long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    // Where the query's matches are while it is shown as a heatmap, or null while it shows markers;
+    // no markers are created while it is a heatmap
+    private volatile DensityGrid density;
+    // Set once the query has been terminated, so an in-progress backfill stops adding markers
+    private volatile boolean terminated = false;
+    // Checked as staged tweets reach the map; kept so staging doesn't allocate a new one
+    private final BooleanSupplier live = () -> !terminated;
+    // Published over JMX as twittermap:type=Query,name="<query string> #<n>"
+    private final MetricGroup metrics;
+    private final Meter evaluations;
+    private final Meter matches;
+    private final Distribution evaluationTime;
+    private final Meter backfilled;
 
 
     public Color getColor() {
@@ -67,12 +96,52 @@ public class Query implements Observer {
         return layer.isVisible();
     }
 
-    public Query(String queryString, Color color, JMapViewer map) {
+    /**
+     * Show this query as a density heatmap, which costs the same to keep and paint however many
+     * tweets match, or go back to showing a marker per tweet. The grid only exists while the
+     * heatmap is shown; the map starts it off with the tweets already in the query's layer.
+     */
+    public void setHeatmap(boolean heatmap) {
+        DensityGrid grid = heatmap ? new DensityGrid() : null;
+        density = grid;
+        map.setHeatmap(layer, grid, color);
+    }
+
+    public boolean getHeatmap() {
+        return density != null;
+    }
+
+    /**
+     * Limit how many markers this query keeps on the map, and for how long
+     *
+     * @param maxMarkers    the most markers to keep, or 0 for no limit
+     * @param maxAgeMillis  how long to keep each marker, or 0 for no limit
+     */
+    public void setRetention(int maxMarkers, long maxAgeMillis) {
+        this.maxMarkers = maxMarkers;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public int getMaxMarkers() {
+        return maxMarkers;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public Query(String queryString, Color color, MarkerSink map) {
         this.queryString = queryString;
         this.filter = Filter.parse(queryString);
         this.color = color;
         this.layer = new Layer(queryString);
         this.map = map;
+        metrics = Metrics.getInstance().group("Query", queryString + " #" + serial.incrementAndGet());
+        evaluations = metrics.meter("evaluations");
+        matches = metrics.meter("matches");
+        evaluationTime = metrics.distribution("evaluationNanos");
+        backfilled = metrics.meter("backfilled");
+        metrics.gauge("markers", this::getMarkerCount);
     }
 
     @Override
@@ -87,9 +156,86 @@ public class Query implements Observer {
      * <p>
      */
     public void terminate() {
-        markers.forEach(map.getMapMarkerList()::remove);
+        terminated = true;
+        map.removeLayer(layer);
+        Metrics.getInstance().remove(metrics);
+    }
+
+    /**
+     * Remove the markers that are over this query's age or count limits from the map, all at once.
+     * Called periodically from the event dispatch thread.
+     */
+    public void evictExpired() {
+        long maxAge = maxAgeMillis;
+        int max = maxMarkers;
+        long cutoff = maxAge > 0 ? System.currentTimeMillis() - maxAge : Long.MIN_VALUE;
+        map.evictTweets(layer, cutoff, max > 0 ? max : Integer.MAX_VALUE);
     }
 
+    public int getMarkerCount() {
+        return map.getMarkerCount(layer);
+    }
+
+    /**
+     * Run this query over tweets that were received before it was added, staging the matching
+     * markers for the map. This may take a while, so call it from a background thread.
+     *
+     * @param store     the store of recently received tweets
+     * @param from      earliest receive time to include
+     * @param to        receive time at which live tweets took over
+     * @param bounds    only tweets within these bounds are backfilled
+     */
+    public void backfill(TweetStore store, long from, long to, GeoBounds bounds) {
+        // Markers are aged from when they are added, so skip tweets that are already too old to keep
+        if (maxAgeMillis > 0) {
+            from = Math.max(from, to - maxAgeMillis);
+        }
+        // Not counted in the evaluations and matches meters, which are for the live stream
+        store.scan(from, to, bounds, status -> {
+            if (terminated || !filter.matches(status)) {
+                return;
+            }
+            show(TweetRecord.of(status));
+            backfilled.mark();
+        });
+    }
+
+    /**
+     * Run this query over archived tweets received before the given time, staging markers for
+     * the most recent matches, up to this query's marker limit. Call it from a background thread
+     * before backfilling from the TweetStore, whose tweets are newer.
+     *
+     * @param archive   the archive of every recorded tweet
+     * @param to        receive time from which the TweetStore takes over
+     * @param bounds    only tweets within these bounds are backfilled
+     */
+    public void backfill(TweetArchive archive, long to, GeoBounds bounds) throws IOException {
+        long from = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        int limit = maxMarkers > 0 ? maxMarkers : Integer.MAX_VALUE;
+        for (Status status : archive.query(filter, from, to, bounds, limit)) {
+            if (terminated) {
+                return;
+            }
+            show(TweetRecord.of(status));
+            backfilled.mark();
+        }
+    }
+
+    /**
+     * Count a matching tweet towards the heatmap if it is shown, or otherwise stage it for the map
+     *
+     * @return whether a marker was staged
+     */
+    boolean show(TweetRecord record) {
+        DensityGrid grid = density;
+        if (grid != null) {
+            grid.add(record.getLat(), record.getLon());
+            return false;
+        }
+        int avatar = map.avatarFor(record.getMiniImageUrl());
+        map.stage(layer, color, record, avatar, live);
+        return true;
+    }
 
     @Override
     public void update(Observable o, Object arg) {
@@ -97,18 +243,23 @@ public class Query implements Observer {
             throw new IllegalArgumentException("Argument must be Status " + arg);
         }
         Status status = (Status) arg;
-        if (!filter.matches(status)) {
-            return;
+        if (matches(status)) {
+            show(TweetRecord.of(status));
         }
+    }
 
-        MapMarker marker = new MapMarkerTweet(layer,
-                Util.statusCoordinate((Status) arg),
-                Util.imageFromURL(status.getUser().getMiniProfileImageURL()),
-                color,
-                status);
-
-        markers.add(marker);
-        map.addMapMarker(marker);
+    /**
+     * Evaluate the filter on a live tweet, counting and timing the evaluation
+     */
+    boolean matches(Status status) {
+        long start = System.nanoTime();
+        boolean ans = filter.matches(status);
+        evaluationTime.record(System.nanoTime() - start);
+        evaluations.mark();
+        if (ans) {
+            matches.mark();
+        }
+        return ans;
     }
 
 }
@@ -0,0 +1,133 @@
+package query;
+
+import metrics.LatencyTracer;
+import metrics.LatencyTracer.Stage;
+import twitter.TweetRecord;
+import twitter4j.Status;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The active queries, as an immutable snapshot that is replaced whenever a query is added or
+ * removed.
+ * <p>
+ * Each snapshot holds the queries, whose filters are parsed when they are made, the set of all
+ * the terms they mention and a version number. Adding or removing a query builds a new snapshot
+ * and swaps it in atomically, so the ingestion thread, which observes the TwitterSource through
+ * the registry, reads one consistent snapshot per tweet without locking, and changes on the event
+ * dispatch thread never stall or corrupt it.
+ */
+public class QueryRegistry implements Observer {
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+
+    /**
+     * A set of active queries; never changes once made
+     */
+    public static class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(0, Collections.emptyList());
+
+        private final long version;
+        private final List<Query> queries;
+        private final Set<String> terms;
+
+        private Snapshot(long version, List<Query> queries) {
+            this.version = version;
+            this.queries = Collections.unmodifiableList(queries);
+            Set<String> all = new HashSet<>();
+            for (Query query : queries) {
+                all.addAll(query.getFilter().terms());
+            }
+            this.terms = Collections.unmodifiableSet(all);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<Query> getQueries() {
+            return queries;
+        }
+
+        /**
+         * @return all the terms mentioned by the queries, for the Twitter API's filter
+         */
+        public Set<String> getTerms() {
+            return terms;
+        }
+    }
+
+    /**
+     * @return the current snapshot
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * @return the snapshot that includes the query
+     */
+    public Snapshot add(Query query) {
+        while (true) {
+            Snapshot old = current.get();
+            List<Query> queries = new ArrayList<>(old.queries);
+            queries.add(query);
+            Snapshot next = new Snapshot(old.version + 1, queries);
+            if (current.compareAndSet(old, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * @return the snapshot without the query
+     */
+    public Snapshot remove(Query query) {
+        while (true) {
+            Snapshot old = current.get();
+            if (!old.queries.contains(query)) {
+                return old;
+            }
+            List<Query> queries = new ArrayList<>(old.queries);
+            queries.remove(query);
+            Snapshot next = new Snapshot(old.version + 1, queries);
+            if (current.compareAndSet(old, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Pass a tweet to every query in the current snapshot. The tweet's record is made once, when
+     * the first query matches it, and shared with the rest.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (!(arg instanceof Status)) {
+            throw new IllegalArgumentException("Argument must be Status " + arg);
+        }
+        Status status = (Status) arg;
+        LatencyTracer tracer = LatencyTracer.getInstance();
+        long arrival = tracer.current();
+        tracer.record(Stage.DISPATCH, arrival);
+        TweetRecord record = null;
+        for (Query query : current.get().queries) {
+            if (!query.matches(status)) {
+                continue;
+            }
+            if (record == null) {
+                tracer.record(Stage.MATCH, arrival);
+                record = TweetRecord.of(status);
+            }
+            if (query.show(record)) {
+                tracer.record(Stage.MARKER, arrival);
+            }
+        }
+    }
+}
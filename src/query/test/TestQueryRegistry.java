@@ -0,0 +1,178 @@
+package query.test;
+
+import metrics.LatencyTracer;
+import metrics.LatencyTracer.Stage;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.gui.jmapviewer.Layer;
+import query.MarkerSink;
+import query.NullMarkerSink;
+import query.Query;
+import query.QueryRegistry;
+import twitter.TweetRecord;
+import twitter4j.GeoLocation;
+import twitter4j.Place;
+import twitter4j.Status;
+import twitter4j.User;
+import util.DensityGrid;
+
+import java.awt.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that registry snapshots are versioned, immutable and always consistent with their terms
+ */
+public class TestQueryRegistry {
+    @Test
+    public void testSnapshots() {
+        QueryRegistry registry = new QueryRegistry();
+        QueryRegistry.Snapshot empty = registry.snapshot();
+        assertTrue(empty.getQueries().isEmpty() && empty.getTerms().isEmpty());
+        Query food = query("food and not pizza");
+        Query coffee = query("coffee");
+        registry.add(food);
+        QueryRegistry.Snapshot both = registry.add(coffee);
+        assertTrue(both.getVersion() == empty.getVersion() + 2);
+        assertTrue(both.getQueries().size() == 2);
+        assertTrue(both.getTerms().contains("food") && both.getTerms().contains("pizza") && both.getTerms().contains("coffee"));
+        QueryRegistry.Snapshot one = registry.remove(food);
+        assertTrue(one.getQueries().size() == 1 && !one.getTerms().contains("food"));
+        // Earlier snapshots are untouched, and removing a query that isn't there changes nothing
+        assertTrue(both.getQueries().size() == 2);
+        assertTrue(registry.remove(food) == one);
+        boolean threw = false;
+        try {
+            one.getQueries().add(food);
+        } catch (UnsupportedOperationException e) {
+            threw = true;
+        }
+        assertTrue(threw);
+    }
+
+    @Test
+    public void testConcurrentReaders() throws InterruptedException {
+        QueryRegistry registry = new QueryRegistry();
+        Query[] queries = {query("red"), query("green or blue"), query("not yellow")};
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            long last = -1;
+            while (!done.get()) {
+                QueryRegistry.Snapshot snapshot = registry.snapshot();
+                Set<String> terms = new HashSet<>();
+                for (Query q : snapshot.getQueries()) {
+                    terms.addAll(q.getFilter().terms());
+                }
+                if (!terms.equals(snapshot.getTerms()) || snapshot.getVersion() < last) {
+                    error.set("Inconsistent snapshot " + snapshot.getVersion());
+                }
+                last = snapshot.getVersion();
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 10000; i++) {
+            Query q = queries[i % queries.length];
+            registry.add(q);
+            registry.remove(q);
+        }
+        done.set(true);
+        reader.join();
+        assertTrue(error.get() == null, error.get());
+        assertTrue(registry.snapshot().getQueries().isEmpty());
+        assertTrue(registry.snapshot().getVersion() == 20000);
+    }
+
+    @Test
+    public void testSharedRecord() {
+        List<TweetRecord> staged = new ArrayList<>();
+        MarkerSink sink = new NullMarkerSink() {
+            @Override
+            public void stage(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live) {
+                staged.add(tweet);
+            }
+        };
+        QueryRegistry registry = new QueryRegistry();
+        registry.add(new Query("food", Color.RED, sink));
+        registry.add(new Query("pizza", Color.BLUE, sink));
+        registry.add(new Query("coffee", Color.GREEN, sink));
+        LatencyTracer tracer = LatencyTracer.getInstance();
+        tracer.reset();
+        tracer.stamp();
+        registry.update(null, status("pizza is my favourite food"));
+        tracer.clear();
+        // Two queries match and share one record; the tweet is traced once however many queries there are
+        assertTrue(staged.size() == 2 && staged.get(0) == staged.get(1));
+        assertTrue(tracer.snapshot(Stage.DISPATCH).getCount() == 1);
+        assertTrue(tracer.snapshot(Stage.MATCH).getCount() == 1);
+        assertTrue(tracer.snapshot(Stage.MARKER).getCount() == 2);
+    }
+
+    @Test
+    public void testHeatmap() {
+        List<TweetRecord> staged = new ArrayList<>();
+        AtomicReference<DensityGrid> shown = new AtomicReference<>();
+        MarkerSink sink = new NullMarkerSink() {
+            @Override
+            public void stage(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live) {
+                staged.add(tweet);
+            }
+
+            @Override
+            public void setHeatmap(Layer layer, DensityGrid density, Color color) {
+                shown.set(density);
+            }
+        };
+        Query query = new Query("pizza", Color.RED, sink);
+        query.update(null, status("pizza"));
+        assertTrue(staged.size() == 1 && !query.getHeatmap());
+        // Only while the heatmap is shown are matches counted in a grid, and then no markers are staged
+        query.setHeatmap(true);
+        DensityGrid grid = shown.get();
+        assertTrue(grid != null && query.getHeatmap());
+        query.update(null, status("more pizza"));
+        query.update(null, status("no match"));
+        assertTrue(staged.size() == 1);
+        assertTrue(grid.version(0, 0, 0) >= 0 && grid.maxCount(0) == 1);
+        query.setHeatmap(false);
+        assertTrue(shown.get() == null && !query.getHeatmap());
+        query.update(null, status("pizza again"));
+        assertTrue(staged.size() == 2 && grid.maxCount(0) == 1);
+    }
+
+    private static Status status(String text) {
+        User user = proxy(User.class, (p, m, args) -> null);
+        Place place = proxy(Place.class, (p, m, args) -> m.getName().equals("getBoundingBoxCoordinates")
+                ? new GeoLocation[][]{{new GeoLocation(49, -124), null, new GeoLocation(50, -123)}} : null);
+        return proxy(Status.class, (p, m, args) -> {
+            switch (m.getName()) {
+                case "getText":
+                    return text;
+                case "getPlace":
+                    return place;
+                case "getUser":
+                    return user;
+                case "getId":
+                    return 1L;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Query query(String queryString) {
+        return new Query(queryString, Color.RED, new NullMarkerSink());
+    }
+}
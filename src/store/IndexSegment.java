@@ -0,0 +1,264 @@
+package store;
+
+import filters.PostingList;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * One immutable, on-disk piece of an InvertedIndex.
+ * <p>
+ * The file holds the data file position the segment covers up to, the offsets of all the
+ * records in the segment, and a sorted term dictionary. Each posting list is stored as
+ * variable-length encoded deltas between successive offsets. The dictionary is loaded into
+ * memory when the segment is opened, along with an index of the trigrams in its terms; posting
+ * lists are read from disk on demand.
+ * <p>
+ * Whole terms are found by binary search in the dictionary. Terms containing a word of three or
+ * more letters are found through the trigram index: only the terms that share the word's rarest
+ * trigram are checked. Shorter words are checked against every term.
+ */
+class IndexSegment implements Closeable {
+    private static final int MAGIC = 0x54574958;   // "TWIX"
+
+    private final long indexedUpTo;
+    private final PostingList all;
+    private final String[] terms;
+    private final long[] positions;
+    private final int[] lengths;
+    // Each trigram of each term, as (trigram << 32 | term number), sorted
+    private final long[] grams;
+    private final RandomAccessFile file;
+
+    private IndexSegment(long indexedUpTo, PostingList all, String[] terms, long[] positions, int[] lengths,
+                         RandomAccessFile file) {
+        this.indexedUpTo = indexedUpTo;
+        this.all = all;
+        this.terms = terms;
+        this.positions = positions;
+        this.lengths = lengths;
+        this.grams = indexGrams(terms);
+        this.file = file;
+    }
+
+    private static long[] indexGrams(String[] terms) {
+        int n = 0;
+        for (String term : terms) {
+            n += Math.max(0, term.length() - TermGrams.N + 1);
+        }
+        long[] grams = new long[n];
+        n = 0;
+        for (int i = 0; i < terms.length; i++) {
+            for (int j = 0; j + TermGrams.N <= terms[i].length(); j++) {
+                grams[n++] = (long) TermGrams.gram(terms[i], j) << 32 | i;
+            }
+        }
+        Arrays.sort(grams);
+        return grams;
+    }
+
+    /**
+     * Write a new segment file
+     *
+     * @param f             the file to write
+     * @param indexedUpTo   data file position up to which the records have been indexed
+     * @param all           offsets of every record in this segment
+     * @param postings      term -> offsets of the records that contain it
+     */
+    static void write(File f, long indexedUpTo, LongList all, SortedMap<String, LongList> postings) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(indexedUpTo);
+            writePostings(out, all);
+            out.writeInt(postings.size());
+            for (Map.Entry<String, LongList> entry : postings.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writePostings(out, entry.getValue());
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            throw new IOException("Can't rename " + tmp + " to " + f);
+        }
+    }
+
+    static IndexSegment open(File f) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an index segment: " + f);
+            }
+            long indexedUpTo = in.readLong();
+            long pos = 4 + 8;
+            int allCount = in.readInt();
+            int allLength = in.readInt();
+            byte[] allBytes = new byte[allLength];
+            in.readFully(allBytes);
+            pos += 8 + allLength;
+            int nTerms = in.readInt();
+            pos += 4;
+            String[] terms = new String[nTerms];
+            long[] positions = new long[nTerms];
+            int[] lengths = new int[nTerms];
+            for (int i = 0; i < nTerms; i++) {
+                terms[i] = in.readUTF();
+                pos += 2 + utfLength(terms[i]);
+                in.readInt();   // posting count, read again along with the postings
+                int length = in.readInt();
+                pos += 8;
+                positions[i] = pos;
+                lengths[i] = length;
+                skipFully(in, length);
+                pos += length;
+            }
+            return new IndexSegment(indexedUpTo, decode(allBytes, allCount), terms, positions, lengths, file);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    long getIndexedUpTo() {
+        return indexedUpTo;
+    }
+
+    PostingList all() {
+        return all;
+    }
+
+    /**
+     * @param term  a lower case term
+     * @return offsets of the records containing exactly that term
+     */
+    PostingList lookupTerm(String term) throws IOException {
+        int i = Arrays.binarySearch(terms, term);
+        return i < 0 ? PostingList.EMPTY : read(i);
+    }
+
+    /**
+     * Add the posting lists of every term that contains word to lists
+     *
+     * @param word  a lower case word
+     */
+    void lookupContaining(String word, List<PostingList> lists) throws IOException {
+        if (word.length() < TermGrams.N) {
+            for (int i = 0; i < terms.length; i++) {
+                if (terms[i].contains(word)) {
+                    lists.add(read(i));
+                }
+            }
+            return;
+        }
+        // The range of grams holding the word's rarest trigram
+        int from = 0;
+        int to = grams.length;
+        for (int j = 0; j + TermGrams.N <= word.length(); j++) {
+            long gram = (long) TermGrams.gram(word, j) << 32;
+            int start = lowerBound(gram);
+            int end = lowerBound(gram + (1L << 32));
+            if (end - start < to - from) {
+                from = start;
+                to = end;
+            }
+        }
+        int previous = -1;
+        for (int g = from; g < to; g++) {
+            int i = (int) grams[g];
+            // A term with the trigram more than once appears more than once
+            if (i != previous && terms[i].contains(word)) {
+                lists.add(read(i));
+            }
+            previous = i;
+        }
+    }
+
+    // The index of the first gram not less than key
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = grams.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (grams[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private PostingList read(int term) throws IOException {
+        byte[] bytes = new byte[lengths[term]];
+        file.seek(positions[term] - 8);
+        int count = file.readInt();
+        file.readInt();
+        file.readFully(bytes);
+        return decode(bytes, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static void writePostings(DataOutputStream out, LongList offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long previous = 0;
+        for (int i = 0; i < offsets.size(); i++) {
+            long delta = offsets.get(i) - previous;
+            previous = offsets.get(i);
+            while ((delta & ~0x7FL) != 0) {
+                bytes.write((int) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            bytes.write((int) delta);
+        }
+        out.writeInt(offsets.size());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static PostingList decode(byte[] bytes, int count) {
+        long[] offsets = new long[count];
+        long previous = 0;
+        int p = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[p++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            previous += delta;
+            offsets[i] = previous;
+        }
+        return PostingList.ofSorted(offsets, count);
+    }
+
+    private static int utfLength(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += (c >= 0x0001 && c <= 0x007F) ? 1 : (c > 0x07FF ? 3 : 2);
+        }
+        return n;
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+}
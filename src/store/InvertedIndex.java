@@ -0,0 +1,204 @@
+package store;
+
+import filters.PostingIndex;
+import filters.PostingList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An on-disk inverted index from the words in tweet text to the offsets of the records containing them.
+ * <p>
+ * Records are added one at a time, in increasing offset order, as they are written. They are kept
+ * in memory until enough have accumulated, then written out as a new immutable IndexSegment.
+ * <p>
+ * The indexed terms are the runs of ASCII letters in the text, in lower case. Any word made only of
+ * ASCII letters that a tweet contains lies inside one of its terms, so lookup gives exactly the
+ * tweets a BasicFilter for that word matches. Lookup finds the terms containing the word through
+ * a trigram index over each dictionary, and merges all their posting lists in one pass.
+ */
+public class InvertedIndex implements PostingIndex, Closeable {
+    private static final Pattern TERM = Pattern.compile("[a-zA-Z]+");
+
+    private final File dir;
+    // How many records to hold in memory before writing a segment
+    private final int segmentSize;
+    private final List<IndexSegment> segments = new ArrayList<>();
+    // Records added since the last segment was written
+    private final SortedMap<String, LongList> pending = new TreeMap<>();
+    // Trigram -> the pending terms containing it
+    private final Map<Integer, List<String>> pendingGrams = new HashMap<>();
+    private LongList pendingAll = new LongList();
+    // Data file position up to which records have been indexed
+    private long indexedUpTo = 0;
+
+    public InvertedIndex(File dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create index directory " + dir);
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(files);
+        for (File f : files) {
+            IndexSegment segment = IndexSegment.open(f);
+            segments.add(segment);
+            indexedUpTo = Math.max(indexedUpTo, segment.getIndexedUpTo());
+        }
+    }
+
+    /**
+     * Can a word be looked up exactly in this index?
+     */
+    public static boolean isIndexable(String word) {
+        return TERM.matcher(word).matches();
+    }
+
+    /**
+     * Index a record
+     *
+     * @param offset    the record's offset; must be larger than that of any record added before
+     * @param end       the data file position just after the record
+     * @param text      the text of the tweet
+     */
+    public synchronized void add(long offset, long end, String text) throws IOException {
+        pendingAll.add(offset);
+        Set<String> seen = new HashSet<>();
+        Matcher m = TERM.matcher(text);
+        while (m.find()) {
+            String term = m.group().toLowerCase(Locale.ROOT);
+            if (seen.add(term)) {
+                LongList postings = pending.get(term);
+                if (postings == null) {
+                    postings = new LongList();
+                    pending.put(term, postings);
+                    addGrams(term);
+                }
+                postings.add(offset);
+            }
+        }
+        indexedUpTo = end;
+        if (pendingAll.size() >= segmentSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the records added so far to a new segment
+     */
+    public synchronized void flush() throws IOException {
+        if (pendingAll.size() == 0) {
+            return;
+        }
+        File f = new File(dir, String.format("%08d.seg", segments.size()));
+        IndexSegment.write(f, indexedUpTo, pendingAll, pending);
+        segments.add(IndexSegment.open(f));
+        pending.clear();
+        pendingGrams.clear();
+        pendingAll = new LongList();
+    }
+
+    private void addGrams(String term) {
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i + TermGrams.N <= term.length(); i++) {
+            int gram = TermGrams.gram(term, i);
+            if (seen.add(gram)) {
+                pendingGrams.computeIfAbsent(gram, g -> new ArrayList<>()).add(term);
+            }
+        }
+    }
+
+    /**
+     * @return the data file position up to which records have been indexed
+     */
+    public synchronized long getIndexedUpTo() {
+        return indexedUpTo;
+    }
+
+    @Override
+    public synchronized PostingList lookup(String word) {
+        if (!isIndexable(word)) {
+            throw new IllegalArgumentException("Can't look up " + word);
+        }
+        String lower = word.toLowerCase(Locale.ROOT);
+        List<PostingList> lists = new ArrayList<>();
+        try {
+            for (IndexSegment segment : segments) {
+                segment.lookupContaining(lower, lists);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (String term : pendingContaining(lower)) {
+            lists.add(pending.get(term).toPostingList());
+        }
+        return PostingList.union(lists);
+    }
+
+    // The pending terms that contain word
+    private List<String> pendingContaining(String word) {
+        Collection<String> candidates = pending.keySet();
+        for (int i = 0; i + TermGrams.N <= word.length(); i++) {
+            List<String> terms = pendingGrams.get(TermGrams.gram(word, i));
+            if (terms == null) {
+                return Collections.emptyList();
+            }
+            if (terms.size() < candidates.size()) {
+                candidates = terms;
+            }
+        }
+        List<String> ans = new ArrayList<>();
+        for (String term : candidates) {
+            if (term.contains(word)) {
+                ans.add(term);
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Returns the offsets of all records containing the given word as a whole term, ignoring case
+     */
+    public synchronized PostingList lookupTerm(String word) {
+        if (!isIndexable(word)) {
+            throw new IllegalArgumentException("Can't look up " + word);
+        }
+        String lower = word.toLowerCase(Locale.ROOT);
+        List<PostingList> lists = new ArrayList<>();
+        try {
+            for (IndexSegment segment : segments) {
+                lists.add(segment.lookupTerm(lower));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LongList postings = pending.get(lower);
+        if (postings != null) {
+            lists.add(postings.toPostingList());
+        }
+        return PostingList.union(lists);
+    }
+
+    @Override
+    public synchronized PostingList all() {
+        List<PostingList> lists = new ArrayList<>();
+        for (IndexSegment segment : segments) {
+            lists.add(segment.all());
+        }
+        lists.add(pendingAll.toPostingList());
+        return PostingList.union(lists);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        for (IndexSegment segment : segments) {
+            segment.close();
+        }
+    }
+}
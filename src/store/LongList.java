@@ -0,0 +1,32 @@
+package store;
+
+import filters.PostingList;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of longs, used to collect posting lists before they are written out.
+ */
+class LongList {
+    private long[] values = new long[4];
+    private int size = 0;
+
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int i) {
+        return values[i];
+    }
+
+    PostingList toPostingList() {
+        return PostingList.ofSorted(Arrays.copyOf(values, size), size);
+    }
+}
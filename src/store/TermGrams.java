@@ -0,0 +1,21 @@
+package store;
+
+/**
+ * The trigrams of index terms, by which the terms containing a word are found.
+ * <p>
+ * Terms are runs of ASCII letters, so a trigram fits in an int, one byte per letter.
+ */
+class TermGrams {
+    // The length of a gram
+    static final int N = 3;
+
+    private TermGrams() {
+    }
+
+    /**
+     * @return the trigram of s starting at i
+     */
+    static int gram(String s, int i) {
+        return (s.charAt(i) & 0xFF) << 16 | (s.charAt(i + 1) & 0xFF) << 8 | (s.charAt(i + 2) & 0xFF);
+    }
+}
@@ -0,0 +1,277 @@
+package store;
+
+import filters.Filter;
+import filters.PostingList;
+import metrics.Meter;
+import metrics.MetricGroup;
+import metrics.Metrics;
+import twitter4j.Status;
+import util.GeoBounds;
+import util.PlaceCentroid;
+import util.Util;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An on-disk archive of recorded tweets with a full-text index, for running filters over a long history.
+ * <p>
+ * Each record is the receive time and the serialized Status, prefixed by its length, so a record can
+ * be read back on its own given its offset in the data file. Records are indexed as they are written;
+ * a query evaluates the filter over the index and only deserializes the records it selects.
+ * <p>
+ * Implements Observer - add it to a TwitterSource to record every tweet the source delivers.
+ * Tweets delivered that way are only queued; a single writer thread serializes, writes and
+ * indexes them, so the threads delivering tweets neither wait for the disk nor for each other.
+ * If the writer falls MAX_QUEUED tweets behind, further tweets are dropped and counted.
+ */
+public class TweetArchive implements Observer, Closeable {
+    private static final int SEGMENT_SIZE = 10000;
+    private static final int MAX_QUEUED = 10000;
+    // Put on the queue by close, after everything else
+    private static final Object CLOSE = new Object();
+
+    private final RandomAccessFile data;
+    private final InvertedIndex index;
+    // Tweets waiting for the writer, plus the latches of flush calls and, last, CLOSE
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(MAX_QUEUED);
+    private final Thread writer;
+    private final Meter dropped;
+    // The number of records, kept so size doesn't have to merge every posting list
+    private int count;
+
+    public TweetArchive(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create archive directory " + dir);
+        }
+        data = new RandomAccessFile(new File(dir, "tweets.dat"), "rw");
+        index = new InvertedIndex(new File(dir, "index"), SEGMENT_SIZE);
+        reindexTail();
+        count = index.all().size();
+        MetricGroup metrics = Metrics.getInstance().group("Archive");
+        metrics.gauge("queued", queue::size);
+        dropped = metrics.meter("dropped");
+        writer = new Thread(this::run, "archive-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Index any records written after the index was last saved
+    private void reindexTail() throws IOException {
+        long offset = index.getIndexedUpTo();
+        while (offset < data.length()) {
+            Status status = readComplete(offset);
+            if (status == null) {
+                // A record cut short by a crash; drop it so new records follow the last whole one
+                data.setLength(offset);
+                break;
+            }
+            long end = data.getFilePointer();
+            index.add(offset, end, status.getText());
+            offset = end;
+        }
+    }
+
+    // The tweet recorded at offset, or null if the data file ends part way through the record
+    private Status readComplete(long offset) throws IOException {
+        if (offset + 4 > data.length()) {
+            return null;
+        }
+        data.seek(offset);
+        int length = data.readInt();
+        if (length < 0 || offset + 4 + length > data.length()) {
+            return null;
+        }
+        try {
+            return read(offset);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        if (!(arg instanceof Status)) {
+            throw new IllegalArgumentException("Argument must be Status " + arg);
+        }
+        if (!queue.offer(new TimedStatus(System.currentTimeMillis(), (Status) arg))) {
+            dropped.mark();
+        }
+    }
+
+    // Record queued tweets until close
+    private void run() {
+        try {
+            while (true) {
+                Object item = queue.take();
+                if (item == CLOSE) {
+                    return;
+                }
+                if (item instanceof CountDownLatch) {
+                    ((CountDownLatch) item).countDown();
+                    continue;
+                }
+                TimedStatus pending = (TimedStatus) item;
+                try {
+                    record(pending.time, pending.status);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop recording
+        }
+    }
+
+    /**
+     * Wait until the tweets queued so far have been recorded
+     */
+    public void flush() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        queue.put(done);
+        done.await();
+    }
+
+    /**
+     * Append a tweet to the archive and index it
+     *
+     * @return the offset of the new record
+     */
+    public synchronized long record(long time, Status status) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeLong(time);
+            out.writeObject(status);
+        }
+        long offset = data.length();
+        data.seek(offset);
+        data.writeInt(bytes.size());
+        data.write(bytes.toByteArray());
+        index.add(offset, data.getFilePointer(), status.getText());
+        count++;
+        return offset;
+    }
+
+    /**
+     * Find all archived tweets that match the filter, oldest first
+     */
+    public List<Status> query(Filter filter) throws IOException {
+        List<Status> ans = new ArrayList<>();
+        PostingList candidates = candidates(filter);
+        for (int i = 0; i < candidates.size(); i++) {
+            Status status = read(candidates.get(i));
+            // The index answers "contains the word"; the filter has the final say
+            if (filter.matches(status)) {
+                ans.add(status);
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Find the most recent archived tweets that match the filter, were received in [from, to) and
+     * come from a place within bounds, oldest first. The archive keeps recording while this runs.
+     *
+     * @param limit the most tweets to return
+     */
+    public List<Status> query(Filter filter, long from, long to, GeoBounds bounds, int limit) throws IOException {
+        List<Status> ans = new ArrayList<>();
+        PostingList candidates = candidates(filter);
+        // Newest first, so the scan can stop at the limit; records are written in receive order
+        for (int i = candidates.size() - 1; i >= 0 && ans.size() < limit; i--) {
+            TimedStatus record = readTimed(candidates.get(i));
+            if (record.time < from) {
+                break;
+            }
+            Status status = record.status;
+            if (record.time >= to || status.getPlace() == null) {
+                continue;
+            }
+            PlaceCentroid centroid = Util.statusCentroid(status);
+            if (bounds.contains(centroid.getLat(), centroid.getLon()) && filter.matches(status)) {
+                ans.add(status);
+            }
+        }
+        Collections.reverse(ans);
+        return ans;
+    }
+
+    // Filters on words the index can't look up fall back to checking every record
+    private PostingList candidates(Filter filter) {
+        for (String term : filter.terms()) {
+            if (!InvertedIndex.isIndexable(term)) {
+                return index.all();
+            }
+        }
+        return filter.postings(index);
+    }
+
+    /**
+     * Read back the tweet recorded at the given offset
+     */
+    public synchronized Status read(long offset) throws IOException {
+        return decode(readRecord(offset)).status;
+    }
+
+    private synchronized TimedStatus readTimed(long offset) throws IOException {
+        return decode(readRecord(offset));
+    }
+
+    private byte[] readRecord(long offset) throws IOException {
+        data.seek(offset);
+        byte[] record = new byte[data.readInt()];
+        data.readFully(record);
+        return record;
+    }
+
+    private TimedStatus decode(byte[] record) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record))) {
+            long time = in.readLong();
+            return new TimedStatus(time, (Status) in.readObject());
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the number of tweets in the archive
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Record the tweets already queued, then close the archive
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            index.close();
+            data.close();
+        }
+    }
+
+    // A tweet and the time it was received
+    private static class TimedStatus {
+        private final long time;
+        private final Status status;
+
+        private TimedStatus(long time, Status status) {
+            this.time = time;
+            this.status = status;
+        }
+    }
+}
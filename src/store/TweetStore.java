@@ -0,0 +1,192 @@
+package store;
+
+import twitter4j.Status;
+import util.GeoBounds;
+import util.PlaceCentroid;
+import util.Util;
+
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * An append-only, in-memory store of recently received tweets.
+ * <p>
+ * Tweets are indexed first by time (one bucket per minute) and then by location (one grid cell
+ * per degree of latitude and longitude), so that a time range and viewport can be scanned without
+ * looking at tweets outside of them. Buckets older than the retention period are dropped, and so
+ * are the oldest buckets whenever the store holds more than its maximum number of tweets; the
+ * newest bucket is always kept.
+ * <p>
+ * Implements Observer - add it to a TwitterSource to record every tweet the source delivers.
+ * Appending and scanning may happen concurrently from different threads.
+ */
+public class TweetStore implements Observer {
+    private static final long BUCKET_MILLIS = 60 * 1000;
+    private static final int LAT_CELLS = 180;
+    private static final int LON_CELLS = 360;
+
+    // How long tweets are kept, in milliseconds
+    private final long retention;
+    // The most tweets kept, however recent
+    private final int maxTweets;
+    // Time bucket start -> tweets received in that minute
+    private final ConcurrentNavigableMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+    // The number of tweets in all the buckets
+    private final AtomicInteger count = new AtomicInteger();
+
+    public TweetStore(long retention) {
+        this(retention, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param retention how long tweets are kept, in milliseconds
+     * @param maxTweets the most tweets to keep
+     */
+    public TweetStore(long retention, int maxTweets) {
+        this.retention = retention;
+        this.maxTweets = maxTweets;
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        if (!(arg instanceof Status)) {
+            throw new IllegalArgumentException("Argument must be Status " + arg);
+        }
+        Status status = (Status) arg;
+        if (status.getPlace() == null) {
+            return;
+        }
+        // The place's cached centroid, shared by its tweets; nothing is allocated per tweet
+        PlaceCentroid centroid = Util.statusCentroid(status);
+        add(System.currentTimeMillis(), centroid.getLat(), centroid.getLon(), status);
+    }
+
+    /**
+     * Record a tweet received at the given time and location
+     */
+    public void add(long time, double lat, double lon, Status status) {
+        long start = time - Math.floorMod(time, BUCKET_MILLIS);
+        Bucket bucket = buckets.computeIfAbsent(start, b -> new Bucket());
+        bucket.cells.computeIfAbsent(cell(lat, lon), c -> new ConcurrentLinkedQueue<>())
+                .add(new StoredTweet(time, lat, lon, status));
+        bucket.count.incrementAndGet();
+        count.incrementAndGet();
+        expire(time);
+    }
+
+    private void expire(long now) {
+        Map.Entry<Long, Bucket> oldest;
+        while ((oldest = buckets.firstEntry()) != null && !oldest.getKey().equals(buckets.lastKey())
+                && (oldest.getKey() + BUCKET_MILLIS < now - retention || count.get() > maxTweets)) {
+            if (buckets.remove(oldest.getKey(), oldest.getValue())) {
+                count.addAndGet(-oldest.getValue().count.get());
+            }
+        }
+    }
+
+    /**
+     * Pass every stored tweet received in [from, to) and located within bounds to the consumer,
+     * oldest buckets first.
+     *
+     * @param from     earliest receive time, inclusive
+     * @param to       latest receive time, exclusive
+     * @param bounds   the area of interest
+     * @param consumer called once per matching tweet
+     */
+    public void scan(long from, long to, GeoBounds bounds, Consumer<Status> consumer) {
+        int minLatCell = latCell(bounds.getMinLat());
+        int maxLatCell = latCell(bounds.getMaxLat());
+        int minLonCell = lonCell(bounds.getMinLon());
+        int maxLonCell = lonCell(bounds.getMaxLon());
+        long cellsInBounds = (long) (maxLatCell - minLatCell + 1) * (maxLonCell - minLonCell + 1);
+        long firstBucket = from - Math.floorMod(from, BUCKET_MILLIS);
+
+        for (Bucket bucket : buckets.subMap(firstBucket, true, to, false).values()) {
+            Map<Integer, Queue<StoredTweet>> cells = bucket.cells;
+            if (cellsInBounds < cells.size()) {
+                // Small viewport: look up just the cells it covers
+                for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+                    for (int lonCell = minLonCell; lonCell <= maxLonCell; lonCell++) {
+                        Queue<StoredTweet> tweets = cells.get(latCell * LON_CELLS + lonCell);
+                        if (tweets != null) {
+                            scanCell(tweets, from, to, bounds, consumer);
+                        }
+                    }
+                }
+            } else {
+                // Large viewport: walk the occupied cells and skip those outside it
+                for (Map.Entry<Integer, Queue<StoredTweet>> entry : cells.entrySet()) {
+                    int latCell = entry.getKey() / LON_CELLS;
+                    int lonCell = entry.getKey() % LON_CELLS;
+                    if (latCell >= minLatCell && latCell <= maxLatCell && lonCell >= minLonCell && lonCell <= maxLonCell) {
+                        scanCell(entry.getValue(), from, to, bounds, consumer);
+                    }
+                }
+            }
+        }
+    }
+
+    private void scanCell(Queue<StoredTweet> tweets, long from, long to, GeoBounds bounds, Consumer<Status> consumer) {
+        for (StoredTweet t : tweets) {
+            if (t.time >= from && t.time < to && bounds.contains(t.lat, t.lon)) {
+                consumer.accept(t.status);
+            }
+        }
+    }
+
+    /**
+     * @return the earliest receive time of the tweets the store may still hold, or Long.MAX_VALUE
+     *         if it is empty
+     */
+    public long getEarliest() {
+        Map.Entry<Long, Bucket> oldest = buckets.firstEntry();
+        return oldest == null ? Long.MAX_VALUE : oldest.getKey();
+    }
+
+    /**
+     * @return the number of tweets currently held
+     */
+    public int size() {
+        return count.get();
+    }
+
+    private static int cell(double lat, double lon) {
+        return latCell(lat) * LON_CELLS + lonCell(lon);
+    }
+
+    private static int latCell(double lat) {
+        return Math.max(0, Math.min(LAT_CELLS - 1, (int) Math.floor(lat + 90)));
+    }
+
+    private static int lonCell(double lon) {
+        return Math.max(0, Math.min(LON_CELLS - 1, (int) Math.floor(lon + 180)));
+    }
+
+    private static class Bucket {
+        // Grid cell -> tweets received in this minute in that cell
+        private final Map<Integer, Queue<StoredTweet>> cells = new ConcurrentHashMap<>();
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
+    private static class StoredTweet {
+        private final long time;
+        private final double lat;
+        private final double lon;
+        private final Status status;
+
+        private StoredTweet(long time, double lat, double lon, Status status) {
+            this.time = time;
+            this.lat = lat;
+            this.lon = lon;
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package store.test;
+
+import filters.Filter;
+import filters.PostingList;
+import org.junit.jupiter.api.Test;
+import store.InvertedIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test evaluating filters over the inverted index, both in memory and after segments are written
+ */
+public class TestInvertedIndex {
+    private static final String[] TEXTS = {
+            "Fred Flintstone",
+            "Red Skelton",
+            "Barney and Fred go bowling",
+            "Wilma, Betty and BamBam",
+            "fredericton weather",
+    };
+
+    @Test
+    public void testLookup() throws IOException {
+        InvertedIndex index = build(100);
+        assertTrue(index.lookup("fred").equals(PostingList.of(0, 20, 40)), "was " + index.lookup("fred"));
+        assertTrue(index.lookup("RED").equals(PostingList.of(0, 10, 20, 40)));
+        assertTrue(index.lookup("pebbles").size() == 0);
+        assertTrue(index.all().size() == TEXTS.length);
+    }
+
+    @Test
+    public void testSubstrings() throws IOException {
+        // Once all in memory, and once spread over segments
+        for (InvertedIndex index : new InvertedIndex[]{build(100), build(2)}) {
+            assertTrue(index.lookup("ton").equals(PostingList.of(0, 10, 40)), "was " + index.lookup("ton"));
+            assertTrue(index.lookup("stone").equals(PostingList.of(0)));
+            assertTrue(index.lookup("a").equals(PostingList.of(20, 30, 40)), "was " + index.lookup("a"));
+            assertTrue(index.lookup("ericto").equals(PostingList.of(40)));
+            assertTrue(index.lookup("tonx").size() == 0);
+            assertTrue(index.lookupTerm("Fred").equals(PostingList.of(0, 20)), "was " + index.lookupTerm("Fred"));
+            assertTrue(index.lookupTerm("fre").size() == 0);
+        }
+    }
+
+    @Test
+    public void testFilters() throws IOException {
+        InvertedIndex index = build(2);
+        assertTrue(eval("fred and not barney", index).equals(PostingList.of(0, 40)));
+        assertTrue(eval("wilma or skelton", index).equals(PostingList.of(10, 30)));
+        assertTrue(eval("not red", index).equals(PostingList.of(30)));
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        File dir = Files.createTempDirectory("index").toFile();
+        InvertedIndex index = new InvertedIndex(dir, 2);
+        add(index);
+        index.close();
+        InvertedIndex reopened = new InvertedIndex(dir, 2);
+        assertTrue(reopened.getIndexedUpTo() == TEXTS.length * 10);
+        assertTrue(eval("fred and bowling", reopened).equals(PostingList.of(20)));
+        reopened.close();
+    }
+
+    private PostingList eval(String query, InvertedIndex index) {
+        return Filter.parse(query).postings(index);
+    }
+
+    private InvertedIndex build(int segmentSize) throws IOException {
+        InvertedIndex index = new InvertedIndex(Files.createTempDirectory("index").toFile(), segmentSize);
+        add(index);
+        return index;
+    }
+
+    // Pretend each record takes 10 bytes of the data file
+    private void add(InvertedIndex index) throws IOException {
+        for (int i = 0; i < TEXTS.length; i++) {
+            index.add(i * 10, i * 10 + 10, TEXTS[i]);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package store.test;
+
+import filters.Filter;
+import org.junit.jupiter.api.Test;
+import store.TweetArchive;
+import twitter4j.GeoLocation;
+import twitter4j.Place;
+import twitter4j.Status;
+import util.GeoBounds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test recording tweets in the archive and querying them back, before and after reopening it
+ */
+public class TestTweetArchive {
+    private static final String[] TEXTS = {
+            "Fred Flintstone",
+            "Red Skelton",
+            "Barney and Fred go bowling",
+            "Wilma, Betty and BamBam",
+            "fredericton weather",
+    };
+
+    @Test
+    public void testQuery() throws IOException {
+        File dir = Files.createTempDirectory("archive").toFile();
+        TweetArchive archive = new TweetArchive(dir);
+        for (int i = 0; i < TEXTS.length; i++) {
+            archive.record(i, status(i, TEXTS[i]));
+        }
+        assertTrue(archive.size() == TEXTS.length);
+        List<Status> found = archive.query(Filter.parse("fred and not barney"));
+        assertTrue(found.size() == 2 && found.get(0).getId() == 0 && found.get(1).getId() == 4);
+        // Words the index can't look up are checked against every record
+        assertTrue(archive.query(Filter.parse("wilma,")).size() == 1);
+        archive.close();
+
+        TweetArchive reopened = new TweetArchive(dir);
+        assertTrue(reopened.size() == TEXTS.length);
+        assertTrue(reopened.query(Filter.parse("red")).size() == 4);
+        reopened.record(TEXTS.length, status(TEXTS.length, "red rover"));
+        assertTrue(reopened.query(Filter.parse("rover or skelton")).size() == 2);
+        reopened.close();
+    }
+
+    @Test
+    public void testObserver() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("archive").toFile();
+        TweetArchive archive = new TweetArchive(dir);
+        for (int i = 0; i < TEXTS.length; i++) {
+            archive.update(null, status(i, TEXTS[i]));
+        }
+        // Delivered tweets are recorded by the writer thread
+        archive.flush();
+        assertTrue(archive.size() == TEXTS.length);
+        archive.update(null, status(TEXTS.length, "red rover"));
+        archive.close();
+
+        TweetArchive reopened = new TweetArchive(dir);
+        assertTrue(reopened.size() == TEXTS.length + 1, "Expected close to record queued tweets");
+        reopened.close();
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        File dir = Files.createTempDirectory("archive").toFile();
+        TweetArchive archive = new TweetArchive(dir);
+        archive.record(0, status(0, TEXTS[0]));
+        archive.record(1, status(1, TEXTS[1]));
+        archive.close();
+        // The start of a record, as left by a crash while it was being written
+        try (RandomAccessFile data = new RandomAccessFile(new File(dir, "tweets.dat"), "rw")) {
+            data.seek(data.length());
+            data.writeInt(1000);
+            data.write(new byte[10]);
+        }
+
+        TweetArchive reopened = new TweetArchive(dir);
+        assertTrue(reopened.size() == 2);
+        reopened.record(2, status(2, "red rover"));
+        assertTrue(reopened.size() == 3);
+        reopened.close();
+
+        TweetArchive again = new TweetArchive(dir);
+        assertTrue(again.size() == 3, "Expected the torn record to be dropped, size was " + again.size());
+        assertTrue(again.query(Filter.parse("rover")).size() == 1);
+        again.close();
+    }
+
+    @Test
+    public void testMultiLine() throws IOException {
+        String[] texts = {
+                "Fred\nFlintstone",
+                "line one\nRed Skelton\nline three",
+                "Barney\r\nand Fred",
+                "no one here",
+        };
+        File dir = Files.createTempDirectory("archive").toFile();
+        TweetArchive archive = new TweetArchive(dir);
+        List<Status> all = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            all.add(status(i, texts[i]));
+            archive.record(i, all.get(i));
+        }
+        // The archive's index and the live filter must agree, whatever the line breaks
+        for (String query : new String[]{"fred", "not fred", "red and not barney", "not skelton", "one or fred"}) {
+            Filter filter = Filter.parse(query);
+            List<Long> expected = new ArrayList<>();
+            for (Status s : all) {
+                if (filter.matches(s)) {
+                    expected.add(s.getId());
+                }
+            }
+            List<Long> found = new ArrayList<>();
+            for (Status s : archive.query(filter)) {
+                found.add(s.getId());
+            }
+            assertTrue(found.equals(expected), query + ": archive found " + found + ", live matched " + expected);
+        }
+        assertTrue(Filter.parse("fred").matches(all.get(0)));
+        archive.close();
+    }
+
+    @Test
+    public void testRecentInBounds() throws IOException {
+        File dir = Files.createTempDirectory("archive").toFile();
+        TweetArchive archive = new TweetArchive(dir);
+        // Fred in Vancouver at times 0, 2, 4, 6 and 8, and in Paris at the odd times
+        for (int i = 0; i < 10; i++) {
+            archive.record(i, status(i, "fred " + i, i % 2 == 0 ? 49.5 : 48.5, i % 2 == 0 ? -123.5 : 2.5));
+        }
+        archive.record(10, status(10, "no place for fred"));
+        Filter fred = Filter.parse("fred");
+        GeoBounds vancouver = new GeoBounds(49, -124, 50, -123);
+
+        List<Status> found = archive.query(fred, 0, 10, vancouver, 100);
+        assertTrue(ids(found).equals(Arrays.asList(0L, 2L, 4L, 6L, 8L)), "Found " + ids(found));
+        // The most recent ones before the end of the range, still oldest first
+        found = archive.query(fred, 0, 7, vancouver, 2);
+        assertTrue(ids(found).equals(Arrays.asList(4L, 6L)), "Found " + ids(found));
+        found = archive.query(fred, 3, 100, GeoBounds.WORLD, 100);
+        assertTrue(ids(found).equals(Arrays.asList(3L, 4L, 5L, 6L, 7L, 8L, 9L)), "Found " + ids(found));
+        archive.close();
+    }
+
+    private static List<Long> ids(List<Status> statuses) {
+        List<Long> ans = new ArrayList<>();
+        for (Status s : statuses) {
+            ans.add(s.getId());
+        }
+        return ans;
+    }
+
+    private static Status status(long id, String text) {
+        return status(id, text, Double.NaN, Double.NaN);
+    }
+
+    private static Status status(long id, String text, double lat, double lon) {
+        return (Status) Proxy.newProxyInstance(Status.class.getClassLoader(), new Class<?>[]{Status.class},
+                new Fake(id, text, lat, lon));
+    }
+
+    // Answers for an archived Status; serialized along with it
+    private static class Fake implements InvocationHandler, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long id;
+        private final String text;
+        // Where the tweet's place is, or NaN if it has none
+        private final double lat;
+        private final double lon;
+
+        private Fake(long id, String text, double lat, double lon) {
+            this.id = id;
+            this.text = text;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getId":
+                    return id;
+                case "getText":
+                    return text;
+                case "getPlace":
+                    return Double.isNaN(lat) ? null : place();
+                case "hashCode":
+                    return Long.hashCode(id);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        }
+
+        // A place with no id, one degree square around the tweet's position
+        private Place place() {
+            GeoLocation[][] box = {{new GeoLocation(lat - 0.5, lon - 0.5), null, new GeoLocation(lat + 0.5, lon + 0.5)}};
+            return (Place) Proxy.newProxyInstance(Place.class.getClassLoader(), new Class<?>[]{Place.class},
+                    (p, m, a) -> m.getName().equals("getBoundingBoxCoordinates") ? box : null);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package store.test;
+
+import org.junit.jupiter.api.Test;
+import store.TweetStore;
+import util.GeoBounds;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the time and location indexing of the TweetStore
+ */
+public class TestTweetStore {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    @Test
+    public void testTimeRange() {
+        TweetStore store = new TweetStore(6 * HOUR);
+        long start = 100 * HOUR;
+        for (int i = 0; i < 60; i++) {
+            store.add(start + i * MINUTE, 49.26, -123.25, null);
+        }
+        assertTrue(count(store, start, start + 60 * MINUTE, GeoBounds.WORLD) == 60);
+        assertTrue(count(store, start + 10 * MINUTE, start + 20 * MINUTE, GeoBounds.WORLD) == 10);
+        assertTrue(count(store, start + 60 * MINUTE, start + 120 * MINUTE, GeoBounds.WORLD) == 0);
+    }
+
+    @Test
+    public void testBounds() {
+        TweetStore store = new TweetStore(6 * HOUR);
+        long now = 100 * HOUR;
+        store.add(now, 49.26, -123.25, null);     // Vancouver
+        store.add(now, 51.50, -0.12, null);       // London
+        store.add(now, -33.87, 151.21, null);     // Sydney
+        GeoBounds europe = new GeoBounds(35, -10, 70, 40);
+        assertTrue(count(store, now, now + 1, europe) == 1);
+        assertTrue(count(store, now, now + 1, GeoBounds.WORLD) == 3);
+        GeoBounds tiny = new GeoBounds(49.25, -123.26, 49.27, -123.24);
+        assertTrue(count(store, now, now + 1, tiny) == 1);
+    }
+
+    @Test
+    public void testRetention() {
+        TweetStore store = new TweetStore(HOUR);
+        long start = 100 * HOUR;
+        store.add(start, 0, 0, null);
+        store.add(start + 3 * HOUR, 0, 0, null);
+        assertTrue(store.size() == 1, "Expected old tweets to be dropped, size was " + store.size());
+        assertTrue(store.getEarliest() == start + 3 * HOUR);
+        assertTrue(new TweetStore(HOUR).getEarliest() == Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testMaxTweets() {
+        TweetStore store = new TweetStore(6 * HOUR, 100);
+        long start = 100 * HOUR;
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 30; j++) {
+                store.add(start + i * MINUTE, 0, 0, null);
+            }
+        }
+        assertTrue(store.size() <= 100, "Expected at most 100 tweets, size was " + store.size());
+        assertTrue(count(store, start, start + 10 * MINUTE, GeoBounds.WORLD) == store.size());
+        // The newest minute is kept
+        assertTrue(count(store, start + 9 * MINUTE, start + 10 * MINUTE, GeoBounds.WORLD) == 30);
+    }
+
+    private int count(TweetStore store, long from, long to, GeoBounds bounds) {
+        AtomicInteger n = new AtomicInteger();
+        store.scan(from, to, bounds, s -> n.incrementAndGet());
+        return n.get();
+    }
+}
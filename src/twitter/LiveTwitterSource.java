@@ -1,7 +1,9 @@
 package twitter;
 
+import metrics.LatencyTracer;
 import twitter4j.*;
 import twitter4j.conf.ConfigurationBuilder;
+import util.AsyncLog;
 
 /**
  * Encapsulates the connection to Twitter
@@ -24,7 +26,7 @@ public class LiveTwitterSource extends TwitterSource {
         String[] queriesArray = terms.toArray(new String[0]);
         filter.track(queriesArray);
 
-        System.out.println("Syncing live Twitter stream with " + terms);
+        AsyncLog.getInstance().log("sync", "source", "live", "terms", terms.toString());
 
         twitterStream.filter(filter);
     }
@@ -34,6 +36,8 @@ public class LiveTwitterSource extends TwitterSource {
             @Override
             public void onStatus(Status status) {
                 // This method is called each time a tweet is delivered by the twitter API
+                LatencyTracer.getInstance().stamp();
+                RECEIVED.mark();
                 if (status.getPlace() != null) {
                     handleTweet(status);
                 }
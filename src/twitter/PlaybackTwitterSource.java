@@ -1,50 +1,124 @@
 package twitter;
 
+import metrics.LatencyTracer;
 import twitter4j.Status;
+import util.AsyncLog;
 import util.ObjectSource;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A Twitter source that plays back a recorded stream of tweets.
  * <p>
  * It ignores the set of terms provided except it uses the first call to setFilterTerms
  * as a signal to begin playback of the recorded stream of tweets.
  * <p>
+ * Decoding the recording and pacing the playback are done by two separate threads: a reader
+ * thread deserializes tweets ahead of time into a bounded queue, and the playback thread only
+ * waits for each tweet's playback time and dispatches it. Playback ends at the end of the
+ * recording, if the recording can't be read, or if the playback thread is interrupted.
+ * <p>
  * Implements Observable - each tweet is signalled to all observers
  */
 public class PlaybackTwitterSource extends TwitterSource {
+    // How many decoded tweets the reader thread may keep ahead of the playback thread
+    private static final int READ_AHEAD = 1024;
+    private static final String DEFAULT_RECORDING = "/home/andrey/IdeaProjects/final-project-starter/TwitterMapperStarter/data/TwitterCapture.jobj";
     // The speedup to apply to the recorded stream of tweets; 2 means play at twice the rate
     // at which the tweets were recorded
     private final double speedup;
-    private ObjectSource source = new ObjectSource("/home/andrey/IdeaProjects/final-project-starter/TwitterMapperStarter/data/TwitterCapture.jobj");
+    private final ObjectSource source;
+    private final BlockingQueue<RecordedTweet> readAhead = new ArrayBlockingQueue<>(READ_AHEAD);
     private boolean threadStarted = false;
+    // How far behind schedule (in milliseconds) the most recently dispatched tweet was, and the worst so far
+    private volatile long playbackLag = 0;
+    private volatile long maxPlaybackLag = 0;
+    private volatile boolean finished = false;
 
     public PlaybackTwitterSource(double speedup) {
+        this(speedup, DEFAULT_RECORDING);
+    }
+
+    /**
+     * @param speedup   how many times faster than it was recorded to play the recording
+     * @param recording the file holding the recording
+     */
+    public PlaybackTwitterSource(double speedup, String recording) {
         this.speedup = speedup;
+        this.source = new ObjectSource(recording);
+        METRICS.gauge("playbackReadAhead", this::getReadAheadDepth);
     }
 
     private void startThread() {
         if (threadStarted) return;
         threadStarted = true;
-        Thread t = new Thread() {
+        Thread reader = new Thread("playback-reader") {
+            public void run() {
+                try {
+                    while (true) {
+                        Object timeo = source.readObject();
+                        if (timeo == null) break;
+                        Object statuso = source.readObject();
+                        if (statuso == null) break;
+                        readAhead.put(new RecordedTweet((Long) timeo, (Status) statuso));
+                    }
+                } catch (InterruptedException e) {
+                    // Stop reading; playback ends with the tweets read so far
+                } finally {
+                    // Whatever went wrong, the playback thread must be told there is no more
+                    end();
+                }
+            }
+
+            private void end() {
+                boolean interrupted = Thread.interrupted();
+                while (!finished) {
+                    try {
+                        if (readAhead.offer(RecordedTweet.END, 100, TimeUnit.MILLISECONDS)) break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        reader.setDaemon(true);
+
+        Thread t = new Thread("playback") {
             long initialDelay = 1000;
             long playbackStartTime = System.currentTimeMillis() + initialDelay;
             long recordStartTime = 0;
 
             public void run() {
+                try {
+                    play();
+                } catch (InterruptedException e) {
+                    // Stop playing
+                } finally {
+                    finished = true;
+                }
+            }
+
+            private void play() throws InterruptedException {
                 long now;
                 while (true) {
-                    Object timeo = source.readObject();
-                    if (timeo == null) break;
-                    Object statuso = source.readObject();
-                    if (statuso == null) break;
-                    long statusTime = (Long) timeo;
+                    RecordedTweet tweet = readAhead.take();
+                    if (tweet == RecordedTweet.END) break;
+                    long statusTime = tweet.getTime();
                     if (recordStartTime == 0) recordStartTime = statusTime;
-                    Status status = (Status) statuso;
+                    Status status = tweet.getStatus();
                     long playbackTime = computePlaybackTime(statusTime);
                     while ((now = System.currentTimeMillis()) < playbackTime) {
-                        pause(playbackTime - now);
+                        Thread.sleep(playbackTime - now);
                     }
+                    recordLag(now - playbackTime);
+                    RECEIVED.mark();
                     if (status.getPlace() != null) {
+                        LatencyTracer.getInstance().stamp();
                         handleTweet(status);
                     }
                 }
@@ -56,23 +130,51 @@ public class PlaybackTwitterSource extends TwitterSource {
                 long targetTime = playbackStartTime + targetDelta;
                 return targetTime;
             }
-
-            private void pause(long millis) {
-                try {
-                    Thread.sleep(millis);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
         };
+        reader.start();
         t.start();
     }
 
+    private void recordLag(long lag) {
+        playbackLag = lag;
+        if (lag > maxPlaybackLag) {
+            maxPlaybackLag = lag;
+        }
+    }
+
+    /**
+     * @return how many milliseconds after its scheduled playback time the most recent tweet was dispatched
+     */
+    public long getPlaybackLag() {
+        return playbackLag;
+    }
+
+    /**
+     * @return the largest playback lag, in milliseconds, seen since playback started
+     */
+    public long getMaxPlaybackLag() {
+        return maxPlaybackLag;
+    }
+
+    /**
+     * @return whether playback has come to an end
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the number of decoded tweets waiting to be played back
+     */
+    public int getReadAheadDepth() {
+        return readAhead.size();
+    }
+
     /**
      * The playback source merely starts the playback thread, it it hasn't been started already
      */
     protected void sync() {
-        System.out.println("Starting playback thread with " + terms);
+        AsyncLog.getInstance().log("sync", "source", "playback", "terms", terms.toString());
 
         startThread();
     }
@@ -0,0 +1,27 @@
+package twitter;
+
+import twitter4j.Status;
+
+/**
+ * A tweet read back from a recording, together with the time at which it was originally recorded.
+ */
+class RecordedTweet {
+    // Marks the end of the recorded stream in the read-ahead queue
+    static final RecordedTweet END = new RecordedTweet(0, null);
+
+    private final long time;
+    private final Status status;
+
+    RecordedTweet(long time, Status status) {
+        this.time = time;
+        this.status = status;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    Status getStatus() {
+        return status;
+    }
+}
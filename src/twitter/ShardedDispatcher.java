@@ -0,0 +1,177 @@
+package twitter;
+
+import metrics.LatencyTracer;
+import twitter4j.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Spreads the dispatch of tweets over several threads, so filter evaluation and marker staging
+ * can use more than one core.
+ * <p>
+ * Tweets are split into shards by status id, so a tweet always goes to the same shard. Each shard
+ * has its own queue and thread and dispatches its tweets in the order they were submitted; tweets
+ * in different shards may be dispatched in any order. Shards share no state of their own: the
+ * observers they call keep per-thread state where it matters (the latency stamp and each thread's
+ * lane in MarkerBatcher), so the shards' output is only merged when the event dispatch thread
+ * drains the batcher. How far throughput grows with the number of shards hasn't been measured;
+ * it depends on the cores available and on the observers not serializing the shards themselves.
+ * <p>
+ * Submitting waits when a shard's queue is full, slowing the source down rather than dropping
+ * tweets. Submitting takes no lock: the submitting thread and shutdown each announce themselves
+ * in a volatile field before reading the other's, so a tweet is either refused or dispatched
+ * before shutdown returns.
+ */
+class ShardedDispatcher {
+    // The most tweets a shard takes off its queue at once
+    private static final int BATCH = 256;
+
+    private final Shard[] shards;
+    private volatile boolean closed = false;
+
+    /**
+     * @param n         the number of shards
+     * @param capacity  how many tweets each shard's queue holds
+     * @param dispatch  called on a shard's thread with each of its tweets
+     */
+    ShardedDispatcher(int n, int capacity, Consumer<Status> dispatch) {
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(i, capacity, dispatch);
+            shards[i].start();
+        }
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Queue a tweet for its shard. Must only be called from one thread at a time.
+     *
+     * @param arrival   the tweet's LatencyTracer stamp, or 0
+     * @return whether the tweet was queued, rather than refused because the shards have been shut down
+     * @throws InterruptedException if interrupted while waiting for room in the queue; the tweet
+     *                              isn't queued
+     */
+    boolean submit(Status status, long arrival) throws InterruptedException {
+        Shard shard = shards[(int) Math.floorMod(status.getId(), (long) shards.length)];
+        // Counted before closed is checked, so shutdown either sees the count or we see closed
+        shard.submitted++;
+        if (closed) {
+            shard.withdraw();
+            return false;
+        }
+        try {
+            shard.queue.put(new Submitted(status, arrival));
+            return true;
+        } catch (InterruptedException e) {
+            shard.withdraw();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of tweets waiting in the shards' queues
+     */
+    int getQueueDepth() {
+        int n = 0;
+        for (Shard shard : shards) {
+            n += shard.queue.size();
+        }
+        return n;
+    }
+
+    /**
+     * Wait until every tweet submitted so far has been dispatched
+     */
+    void awaitIdle() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.awaitDispatched(shard.submitted);
+        }
+    }
+
+    /**
+     * Refuse any more tweets and stop the shards once they have dispatched everything submitted
+     */
+    void shutdown() throws InterruptedException {
+        closed = true;
+        for (Shard shard : shards) {
+            // Also waits for a submit that counted its tweet before closed was set
+            shard.awaitDispatched(Long.MAX_VALUE);
+            shard.interrupt();
+        }
+    }
+
+    private static class Submitted {
+        private final Status status;
+        private final long arrival;
+
+        private Submitted(Status status, long arrival) {
+            this.status = status;
+            this.arrival = arrival;
+        }
+    }
+
+    private static class Shard extends Thread {
+        private final BlockingQueue<Submitted> queue;
+        private final Consumer<Status> dispatch;
+        // Only written by the submitting thread
+        private volatile long submitted;
+        // Only written by the shard's thread, under the shard's monitor, which is notified after each batch
+        private volatile long dispatched;
+
+        private Shard(int index, int capacity, Consumer<Status> dispatch) {
+            super("dispatch-shard-" + index);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.dispatch = dispatch;
+        }
+
+        // Take back a tweet that was counted but not queued
+        private synchronized void withdraw() {
+            submitted--;
+            notifyAll();
+        }
+
+        // Wait until the tweets submitted, up to the target, have been dispatched
+        private synchronized void awaitDispatched(long target) throws InterruptedException {
+            while (dispatched < Math.min(target, submitted)) {
+                wait();
+            }
+        }
+
+        @Override
+        public void run() {
+            LatencyTracer tracer = LatencyTracer.getInstance();
+            List<Submitted> batch = new ArrayList<>(BATCH);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, BATCH - 1);
+                for (Submitted tweet : batch) {
+                    tracer.resume(tweet.arrival);
+                    try {
+                        dispatch.accept(tweet.status);
+                    } catch (RuntimeException e) {
+                        // Don't let one bad tweet stop the shard
+                        e.printStackTrace();
+                    }
+                    tracer.clear();
+                }
+                synchronized (this) {
+                    dispatched += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+}
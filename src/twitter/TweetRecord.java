@@ -0,0 +1,90 @@
+package twitter;
+
+import twitter4j.Status;
+import util.PlaceCentroid;
+
+/**
+ * The parts of a tweet that a map marker needs, in place of the full Status.
+ * <p>
+ * A Status drags along its user, entities, place and any retweeted status, several kilobytes in
+ * all. A record keeps only the id, the text, the centre of the tweet's place and its author's
+ * avatar URLs. The URLs are interned, so all of a user's tweets share one copy. Apart from the
+ * text, a record is under a hundred bytes. The tooltip HTML is built the first time it is asked
+ * for and kept.
+ * <p>
+ * QueryRegistry makes a tweet's record once, when the first query matches it, and shares it with
+ * every other query that matches.
+ */
+public class TweetRecord {
+    private final long id;
+    private final String text;
+    private final double lat;
+    private final double lon;
+    private final String miniImageUrl;
+    private final String originalImageUrl;
+    // Built on first use; a race just builds the same string twice
+    private String tip;
+
+    public TweetRecord(long id, String text, double lat, double lon, String miniImageUrl, String originalImageUrl) {
+        this.id = id;
+        this.text = text;
+        this.lat = lat;
+        this.lon = lon;
+        this.miniImageUrl = miniImageUrl == null ? null : miniImageUrl.intern();
+        this.originalImageUrl = originalImageUrl == null ? null : originalImageUrl.intern();
+    }
+
+    /**
+     * @param status    a tweet with a place
+     * @return the record of the tweet, located at the centre of its place
+     */
+    public static TweetRecord of(Status status) {
+        PlaceCentroid centroid = PlaceCentroid.of(status.getPlace());
+        return new TweetRecord(status.getId(),
+                status.getText(),
+                centroid.getLat(),
+                centroid.getLon(),
+                status.getUser().getMiniProfileImageURL(),
+                status.getUser().getOriginalProfileImageURL());
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public String getMiniImageUrl() {
+        return miniImageUrl;
+    }
+
+    public String getOriginalImageUrl() {
+        return originalImageUrl;
+    }
+
+    /**
+     * @return the HTML for the tweet's tooltip
+     */
+    public String getTip() {
+        String ans = tip;
+        if (ans == null) {
+            ans = String.format("<html><p style=\"word-wrap: break-word;  width: 300px;\">" +
+                            "<img src=\"%s\" alt=\"\" width=\"40\" height=\"40\" />%s</p>" +
+                            "</html>",
+                    originalImageUrl,
+                    text);
+            tip = ans;
+        }
+        return ans;
+    }
+}
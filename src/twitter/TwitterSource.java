@@ -1,29 +1,65 @@
 package twitter;
 
+import metrics.LatencyTracer;
+import metrics.Meter;
+import metrics.MetricGroup;
+import metrics.Metrics;
 import twitter4j.Status;
-import util.ImageCache;
+import twitter4j.User;
+import util.AsyncLog;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-
+/**
+ * A source of tweets, which it passes to its observers.
+ * <p>
+ * By default each tweet is dispatched on the thread that delivers it. With setShards, or the
+ * system property twittermap.shards, dispatch is spread over several threads by status id; the
+ * observers must then be safe to call from several threads at once. Observers are kept in a
+ * copy-on-write list rather than by Observable, whose notifyObservers locks for every tweet and
+ * can't be called from several threads at once.
+ */
 public abstract class TwitterSource extends Observable {
+    // How many tweets each shard's queue holds
+    private static final int SHARD_QUEUE_CAPACITY = 4096;
+    // Shared by all sources: every tweet that arrives, and those passed on to the observers
+    protected static final MetricGroup METRICS = Metrics.getInstance().group("Ingestion");
+    protected static final Meter RECEIVED = METRICS.meter("received");
+    private static final Meter DISPATCHED = METRICS.meter("dispatched");
     protected boolean doLogging = true;
-    // The set of terms to look for in the stream of tweets
-    protected Set<String> terms = new HashSet<>();
+    // The set of terms to look for in the stream of tweets; never changed, only replaced, so it
+    // can be read from the stream's thread while the terms are being set
+    protected volatile Set<String> terms = Collections.emptySet();
+    private final CopyOnWriteArrayList<Observer> observers = new CopyOnWriteArrayList<>();
+    // Null when tweets are dispatched on the delivering thread
+    private volatile ShardedDispatcher shards;
+    // Held while the shards are replaced; handing a tweet to them takes no lock
+    private final Object shardLock = new Object();
+
+    protected TwitterSource() {
+        setShards(Integer.getInteger("twittermap.shards", 1));
+        METRICS.gauge("shardQueueDepth", () -> {
+            ShardedDispatcher current = shards;
+            return current == null ? 0 : current.getQueueDepth();
+        });
+    }
 
     // Called each time a new set of filter terms has been established
     abstract protected void sync();
 
+    // Log a tweet, sampled, without waiting for the log to be written; a tweet that is sampled out
+    // costs a counter update. Avatars are fetched by the map when a tweet reaches it, not here.
     protected void log(Status status) {
-        if (doLogging) {
-            System.out.println(status.getUser().getName() + ": " + status.getText());
+        AsyncLog log = AsyncLog.getInstance();
+        if (doLogging && log.sample()) {
+            User user = status.getUser();
+            log.log("tweet", "id", status.getId(), "user", user == null ? null : user.getName(), "text", status.getText());
         }
-        ImageCache.getInstance().loadImage(status.getUser().getProfileImageURL());
     }
 
     public void setFilterTerms(Collection<String> newterms) {
-        terms.clear();
-        terms.addAll(newterms);
+        terms = Collections.unmodifiableSet(new HashSet<>(newterms));
         sync();
     }
 
@@ -31,10 +67,91 @@ public abstract class TwitterSource extends Observable {
         return new ArrayList<>(terms);
     }
 
+    /**
+     * Dispatch tweets on n threads, or on the delivering thread if n is 1. Tweets already handed
+     * to the previous shards are dispatched before this returns; meanwhile new tweets go to the
+     * new shards.
+     */
+    public void setShards(int n) {
+        synchronized (shardLock) {
+            ShardedDispatcher old = shards;
+            shards = n > 1 ? new ShardedDispatcher(n, SHARD_QUEUE_CAPACITY, this::dispatch) : null;
+            if (old != null) {
+                try {
+                    old.shutdown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public int getShards() {
+        ShardedDispatcher current = shards;
+        return current == null ? 1 : current.getShardCount();
+    }
+
+    /**
+     * Wait until every tweet handled so far has been dispatched to the observers
+     */
+    public void awaitDispatched() throws InterruptedException {
+        ShardedDispatcher current = shards;
+        if (current != null) {
+            current.awaitIdle();
+        }
+    }
+
+    @Override
+    public void addObserver(Observer o) {
+        if (o == null) {
+            throw new NullPointerException();
+        }
+        observers.addIfAbsent(o);
+    }
+
+    @Override
+    public void deleteObserver(Observer o) {
+        observers.remove(o);
+    }
+
+    @Override
+    public void deleteObservers() {
+        observers.clear();
+    }
+
+    @Override
+    public int countObservers() {
+        return observers.size();
+    }
+
     // This method is called each time a tweet is delivered to the application.
     //       it can determine whether the tweet should be displayed
+    // It is the single point through which tweets enter, so must only be called from one thread at a time.
     protected void handleTweet(Status s) {
-        setChanged();
-        notifyObservers(s);
+        log(s);
+        long arrival = LatencyTracer.getInstance().current();
+        ShardedDispatcher current;
+        try {
+            while ((current = shards) != null && !current.submit(s, arrival)) {
+                // Refused because the shards were replaced meanwhile; the new ones are already in place
+            }
+        } catch (InterruptedException e) {
+            // The source is being stopped; drop the tweet
+            Thread.currentThread().interrupt();
+            LatencyTracer.getInstance().clear();
+            return;
+        }
+        if (current == null) {
+            dispatch(s);
+        }
+        LatencyTracer.getInstance().clear();
+    }
+
+    // Pass a tweet to every observer
+    private void dispatch(Status s) {
+        DISPATCHED.mark();
+        for (Observer o : observers) {
+            o.update(this, s);
+        }
     }
 }
@@ -2,8 +2,17 @@ package twitter.test;
 
 import org.junit.jupiter.api.Test;
 import twitter.PlaybackTwitterSource;
+import twitter4j.Place;
 import twitter4j.Status;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.HashSet;
 import java.util.Observable;
 import java.util.Observer;
@@ -33,6 +42,80 @@ public class TestPlaybackTwitterSource {
         assertTrue(to.getNTweets() <= 10, "Expected getNTweets() to be <= 10, was " + to.getNTweets());
     }
 
+    @Test
+    public void testReadAhead() throws IOException {
+        int n = 2000;
+        // A tweet every millisecond, so decoding has to keep well ahead of playback
+        PlaybackTwitterSource source = new PlaybackTwitterSource(1.0, writeRecording(n, 1).getPath());
+        TestObserver to = new TestObserver();
+        source.addObserver(to);
+        source.setFilterTerms(set("food"));
+        awaitFinished(source, 10 * 1000);
+        assertTrue(to.getNTweets() == n, "Expected " + n + " tweets, was " + to.getNTweets());
+        assertTrue(source.getReadAheadDepth() == 0);
+        assertTrue(source.getMaxPlaybackLag() < 500, "Expected playback to keep up, lag was " + source.getMaxPlaybackLag());
+    }
+
+    @Test
+    public void testMissingRecording() {
+        PlaybackTwitterSource source = new PlaybackTwitterSource(1.0, "no/such/recording.jobj");
+        source.setFilterTerms(set("food"));
+        awaitFinished(source, 3 * 1000);
+        assertTrue(source.isFinished(), "Expected playback to end when the recording can't be read");
+    }
+
+    private void awaitFinished(PlaybackTwitterSource source, long millis) {
+        long end = System.currentTimeMillis() + millis;
+        while (!source.isFinished() && System.currentTimeMillis() < end) {
+            pause(10);
+        }
+    }
+
+    // Write n tweets with places, intervalMillis apart, in the recording format
+    private File writeRecording(int n, long intervalMillis) throws IOException {
+        File file = File.createTempFile("recording", ".jobj");
+        file.deleteOnExit();
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
+            long time = 1000;
+            for (int i = 0; i < n; i++) {
+                out.writeObject(time);
+                out.writeObject(proxy(Status.class, new Fake(i)));
+                time += intervalMillis;
+            }
+        }
+        return file;
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    // Answers for a recorded Status, or its Place; serialized along with them
+    private static class Fake implements InvocationHandler, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long id;
+
+        private Fake(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getId":
+                    return id;
+                case "getPlace":
+                    return proxy(Place.class, new Fake(id));
+                case "hashCode":
+                    return Long.hashCode(id);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        }
+    }
+
     private void pause(int millis) {
         try {
             Thread.sleep(millis);
@@ -0,0 +1,136 @@
+package twitter.test;
+
+import org.junit.jupiter.api.Test;
+import twitter.TwitterSource;
+import twitter4j.Status;
+
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that a sharded source dispatches every tweet exactly once, each id always on the same thread
+ */
+public class TestShardedDispatch {
+    private static final int TWEETS = 20000;
+    private static final int IDS = 1000;
+
+    // A source that dispatches whatever it is handed
+    private static class DirectSource extends TwitterSource {
+        @Override
+        protected void sync() {
+        }
+
+        void deliver(Status status) {
+            handleTweet(status);
+        }
+    }
+
+    @Test
+    public void testSharded() throws InterruptedException {
+        DirectSource source = new DirectSource();
+        source.setShards(4);
+        assertTrue(source.getShards() == 4);
+        Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+        Map<Long, String> threads = new ConcurrentHashMap<>();
+        AtomicReference<String> error = new AtomicReference<>();
+        source.addObserver((o, arg) -> {
+            long id = ((Status) arg).getId();
+            counts.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+            String name = Thread.currentThread().getName();
+            String previous = threads.putIfAbsent(id, name);
+            if (previous != null && !previous.equals(name)) {
+                error.set("Tweet " + id + " dispatched on " + previous + " and " + name);
+            }
+        });
+        for (int i = 0; i < TWEETS; i++) {
+            source.deliver(status(i % IDS));
+        }
+        source.awaitDispatched();
+        assertTrue(error.get() == null, error.get());
+        assertTrue(counts.size() == IDS);
+        for (AtomicInteger n : counts.values()) {
+            assertTrue(n.get() == TWEETS / IDS);
+        }
+        assertTrue(new HashSet<>(threads.values()).size() == 4);
+        source.setShards(1);
+        assertTrue(source.getShards() == 1);
+    }
+
+    @Test
+    public void testResharding() throws InterruptedException {
+        DirectSource source = new DirectSource();
+        AtomicInteger dispatched = new AtomicInteger();
+        source.addObserver((o, arg) -> dispatched.incrementAndGet());
+        Thread deliverer = new Thread(() -> {
+            for (int i = 0; i < TWEETS; i++) {
+                source.deliver(status(i));
+            }
+        });
+        deliverer.start();
+        // Change the shards over and over while tweets are being handed to them
+        for (int i = 0; deliverer.isAlive() && i < 1000; i++) {
+            source.setShards(2 + i % 3);
+        }
+        deliverer.join(10 * 1000);
+        assertTrue(!deliverer.isAlive(), "Delivery got stuck");
+        source.awaitDispatched();
+        assertTrue(dispatched.get() == TWEETS, "Expected " + TWEETS + " tweets, was " + dispatched.get());
+        source.setShards(1);
+    }
+
+    @Test
+    public void testInterrupt() throws InterruptedException {
+        DirectSource source = new DirectSource();
+        source.setShards(2);
+        CountDownLatch release = new CountDownLatch(1);
+        source.addObserver((o, arg) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        AtomicBoolean stopped = new AtomicBoolean();
+        Thread deliverer = new Thread(() -> {
+            // Even ids all go to one shard, whose queue fills while its observer is held up
+            for (long id = 0; !Thread.currentThread().isInterrupted(); id += 2) {
+                source.deliver(status(id));
+            }
+            stopped.set(true);
+        });
+        deliverer.start();
+        while (deliverer.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        // A producer waiting for room in a shard's queue can still be stopped
+        deliverer.interrupt();
+        deliverer.join(5 * 1000);
+        assertTrue(!deliverer.isAlive() && stopped.get(), "Expected the interrupt to stop delivery");
+        release.countDown();
+        source.setShards(1);
+    }
+
+    private static Status status(long id) {
+        return (Status) Proxy.newProxyInstance(Status.class.getClassLoader(), new Class<?>[]{Status.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "hashCode":
+                            return Long.hashCode(id);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,29 @@
+package twitter.test;
+
+import org.junit.jupiter.api.Test;
+import twitter.TweetRecord;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that tweet records share their users' image URLs and build their tooltips once
+ */
+public class TestTweetRecord {
+    @Test
+    public void testSharedUrls() {
+        // Built at runtime, so the two strings start out as different objects
+        String url = new StringBuilder("http://example.com/").append("avatar_mini.png").toString();
+        String sameUrl = new StringBuilder("http://example.com/avatar").append("_mini.png").toString();
+        TweetRecord a = new TweetRecord(1, "first", 49.26, -123.25, url, null);
+        TweetRecord b = new TweetRecord(2, "second", 49.26, -123.25, sameUrl, null);
+        assertTrue(a.getMiniImageUrl() == b.getMiniImageUrl());
+    }
+
+    @Test
+    public void testTip() {
+        TweetRecord record = new TweetRecord(1, "hello world", 0, 0, null, "http://example.com/avatar.png");
+        String tip = record.getTip();
+        assertTrue(tip.contains("hello world") && tip.contains("http://example.com/avatar.png"));
+        assertTrue(record.getTip() == tip);
+    }
+}
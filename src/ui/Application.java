@@ -1,37 +1,67 @@
 package ui;
 
 import org.openstreetmap.gui.jmapviewer.Coordinate;
-import org.openstreetmap.gui.jmapviewer.JMapViewer;
-import org.openstreetmap.gui.jmapviewer.Layer;
 import org.openstreetmap.gui.jmapviewer.interfaces.ICoordinate;
 import org.openstreetmap.gui.jmapviewer.interfaces.MapMarker;
 import org.openstreetmap.gui.jmapviewer.tilesources.BingAerialTileSource;
 import query.Query;
+import query.QueryRegistry;
+import store.TweetArchive;
+import store.TweetStore;
 import twitter.LiveTwitterSource;
 import twitter.TwitterSource;
+import util.AsyncLog;
+import util.GeoBounds;
 import util.SphericalGeometry;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
 import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Twitter viewer application
  * Derived from a JMapViewer demo program written by Jan Peter Stotz
  */
 public class Application extends JFrame {
+    // How far back a newly added query looks for matching tweets
+    private static final long BACKFILL_HOURS = 6;
+    // The most tweets kept for backfills, since each holds on to its whole Status
+    private static final int BACKFILL_MAX_TWEETS = 50000;
+    // Hover tooltips are updated at most once per frame
+    private static final int HOVER_INTERVAL_MILLIS = 16;
+    // How often queries drop markers that are past their retention limits
+    private static final int RETENTION_INTERVAL_MILLIS = 1000;
     // The content panel, which contains the entire UI
     private final ContentPanel contentPanel;
     // The provider of the tiles for the getMap, we use the Bing source
     private BingAerialTileSource bing;
     // All of the active queries
-    private List<Query> queries = new ArrayList<>();
+    private final QueryRegistry queries = new QueryRegistry();
     // The source of tweets, a TwitterSource, either live or playback
     private TwitterSource twitterSource;
+    // The latest mouse position, waiting for the hover timer to compute its tooltip
+    private Point hoverPoint;
+    // Recently received tweets, used to backfill newly added queries
+    private final TweetStore tweetStore = new TweetStore(TimeUnit.HOURS.toMillis(BACKFILL_HOURS), BACKFILL_MAX_TWEETS);
+    // Every tweet received, indexed for historical queries; only kept if the system property
+    // twittermap.archive names a directory for it. New queries are backfilled from it with the
+    // tweets older than those in the tweetStore.
+    private TweetArchive archive;
+    // Runs backfills so they block neither the event dispatch thread nor tweet ingestion
+    private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "query-backfill");
+        t.setDaemon(true);
+        return t;
+    });
 
     private void initialize() {
         // To use the live twitter stream, use the following line
@@ -42,8 +72,31 @@ public class Application extends JFrame {
         //  1.0 - play back at the recorded speed
         //  2.0 - play back twice as fast
         twitterSource = new LiveTwitterSource();
+        twitterSource.addObserver(tweetStore);
+        twitterSource.addObserver(queries);
+        openArchive(System.getProperty("twittermap.archive"));
+    }
 
-        queries = new ArrayList<>();
+    // Start recording every tweet in the archive, closing it when the application exits
+    private void openArchive(String dir) {
+        if (dir == null) {
+            return;
+        }
+        try {
+            archive = new TweetArchive(new File(dir));
+        } catch (IOException e) {
+            // Carry on without the archive
+            e.printStackTrace();
+            return;
+        }
+        twitterSource.addObserver(archive);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "archive-close"));
     }
 
     /**
@@ -52,25 +105,60 @@ public class Application extends JFrame {
      * @param query The new query object
      */
     public void addQuery(Query query) {
-        queries.add(query);
-        Set<String> allTerms = getQueryTerms();
-        twitterSource.setFilterTerms(allTerms);
+        // Tweets stored from now on are dispatched to the query live, so the backfill stops here
+        long now = System.currentTimeMillis();
+        QueryRegistry.Snapshot snapshot = queries.add(query);
+        twitterSource.setFilterTerms(snapshot.getTerms());
         contentPanel.addQuery(query);
-        twitterSource.addObserver(query);
+        backfill(query, now);
     }
 
-    /**
-     * return a list of all terms mentioned in all queries. The live twitter source uses this
-     * to request matching tweets from the Twitter API.
-     *
-     * @return
-     */
-    private Set<String> getQueryTerms() {
-        Set<String> ans = new HashSet<>();
-        for (Query q : queries) {
-            ans.addAll(q.getFilter().terms());
+    // Show the tweets that match a new query among those received before it was added
+    private void backfill(Query query, long now) {
+        long from = now - TimeUnit.HOURS.toMillis(BACKFILL_HOURS);
+        List<GeoBounds> viewport = getViewport();
+        TweetArchive archive = this.archive;
+        backfillExecutor.execute(() -> {
+            long storeFrom = from;
+            if (archive != null) {
+                // The archive goes back further; it supplies what the store no longer holds
+                storeFrom = Math.max(from, Math.min(now, tweetStore.getEarliest()));
+                try {
+                    for (GeoBounds part : viewport) {
+                        query.backfill(archive, storeFrom, part);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (GeoBounds part : viewport) {
+                query.backfill(tweetStore, storeFrom, now, part);
+            }
+        });
+    }
+
+    // The part of the world currently visible on the map: one area, or two if the map has been
+    // scrolled across the date line, one either side of it
+    private List<GeoBounds> getViewport() {
+        TweetMapViewer map = getMap();
+        if (map.getWidth() == 0 || map.getHeight() == 0) {
+            return Collections.singletonList(GeoBounds.WORLD);
+        }
+        ICoordinate topLeft = map.getPosition(0, 0);
+        ICoordinate bottomRight = map.getPosition(map.getWidth(), map.getHeight());
+        double south = bottomRight.getLat();
+        double north = topLeft.getLat();
+        double width = bottomRight.getLon() - topLeft.getLon();
+        if (width >= 360) {
+            return Collections.singletonList(new GeoBounds(south, -180, north, 180));
+        }
+        // With scroll wrap the longitudes can be past +-180; bring the west edge back into range
+        double west = ((topLeft.getLon() + 180) % 360 + 360) % 360 - 180;
+        double east = west + width;
+        if (east <= 180) {
+            return Collections.singletonList(new GeoBounds(south, west, north, east));
         }
-        return ans;
+        return Arrays.asList(new GeoBounds(south, west, north, 180), new GeoBounds(south, -180, north, east - 360));
     }
 
     /**
@@ -117,21 +205,45 @@ public class Application extends JFrame {
         };
         bingTimer.schedule(bingAttributionCheck, 100, 200);
 
-        // Set up a motion listener to create a tooltip showing the tweets at the pointer position
+        // Expired markers are removed in one batch per query per tick rather than as each one expires
+        javax.swing.Timer retentionTimer = new javax.swing.Timer(RETENTION_INTERVAL_MILLIS, e -> {
+            for (Query q : queries.snapshot().getQueries()) {
+                q.evictExpired();
+            }
+        });
+        retentionTimer.start();
+
+        // Set up a motion listener to create a tooltip showing the tweets at the pointer position.
+        // Mouse moves only record the position; the timer looks up markers at most once per frame.
+        javax.swing.Timer hoverTimer = new javax.swing.Timer(HOVER_INTERVAL_MILLIS, e -> updateHover());
+        hoverTimer.setRepeats(false);
+        hoverTimer.setCoalesce(true);
         getMap().addMouseMotionListener(new MouseAdapter() {
             @Override
             public void mouseMoved(MouseEvent e) {
-                Point p = e.getPoint();
-                ICoordinate pos = getMap().getPosition(p);
-                getMarkersCovering(pos, pixelWidth(p))
-                        .stream()
-                        .filter(MapMarkerTweet.class::isInstance)
-                        .map(MapMarkerTweet.class::cast)
-                        .forEach(tweet -> getMap().setToolTipText(tweet.getTwitterTip()));
+                hoverPoint = e.getPoint();
+                if (!hoverTimer.isRunning()) {
+                    hoverTimer.start();
+                }
             }
         });
     }
 
+    private void updateHover() {
+        Point p = hoverPoint;
+        if (p == null) return;
+        ICoordinate pos = getMap().getPosition(p);
+        MapMarkerTweet last = null;
+        for (MapMarker m : getMarkersCovering(pos, pixelWidth(p))) {
+            if (m instanceof MapMarkerTweet) {
+                last = (MapMarkerTweet) m;
+            }
+        }
+        if (last != null) {
+            getMap().setToolTipText(last.getTwitterTip());
+        }
+    }
+
     // How big is a single pixel on the getMap?  We use this to compute which tweet markers
     // are at the current most position.
     private double pixelWidth(Point p) {
@@ -140,32 +252,12 @@ public class Application extends JFrame {
         return SphericalGeometry.distanceBetween(center, edge);
     }
 
-    // Get those layers (of tweet markers) that are visible because their corresponding query is enabled
-    private Set<Layer> getVisibleLayers() {
-        Set<Layer> ans = new HashSet<>();
-        for (Query q : queries) {
-            if (q.getVisible()) {
-                ans.add(q.getLayer());
-            }
-        }
-        return ans;
-    }
-
     // Get all the markers at the given getMap position, at the current getMap zoom setting
     private List<MapMarker> getMarkersCovering(ICoordinate pos, double pixelWidth) {
-        List<MapMarker> ans = new ArrayList<>();
-        Set<Layer> visibleLayers = getVisibleLayers();
-        for (MapMarker m : getMap().getMapMarkerList()) {
-            if (!visibleLayers.contains(m.getLayer())) continue;
-            double distance = SphericalGeometry.distanceBetween(m.getCoordinate(), pos);
-            if (distance < m.getRadius() * pixelWidth) {
-                ans.add(m);
-            }
-        }
-        return ans;
+        return getMap().getMarkersCovering(pos, pixelWidth);
     }
 
-    public JMapViewer getMap() {
+    public TweetMapViewer getMap() {
         return contentPanel.getViewer();
     }
 
@@ -179,8 +271,9 @@ public class Application extends JFrame {
     // Update which queries are visible after any checkBox has been changed
     public void updateVisibility() {
         SwingUtilities.invokeLater(() -> {
-            System.out.println("Recomputing visible queries");
-            for (Query q : queries) {
+            List<Query> active = queries.snapshot().getQueries();
+            AsyncLog.getInstance().log("visibility", "queries", active.size());
+            for (Query q : active) {
                 JCheckBox box = q.getCheckBox();
                 Boolean state = box.isSelected();
                 q.setVisible(state);
@@ -191,10 +284,8 @@ public class Application extends JFrame {
 
     // A query has been deleted, remove all traces of it
     public void terminateQuery(Query query) {
-        queries.remove(query);
-        Set<String> allTerms = getQueryTerms();
-        twitterSource.setFilterTerms(allTerms);
-        twitterSource.deleteObserver(query);
+        QueryRegistry.Snapshot snapshot = queries.remove(query);
+        twitterSource.setFilterTerms(snapshot.getTerms());
     }
 
 }
@@ -0,0 +1,106 @@
+package ui;
+
+import util.ImageCache;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers avatar URLs so the points on the map can refer to their avatar with an int.
+ * <p>
+ * Avatars are fetched through the ImageCache the first time they are asked for. The table only
+ * holds weak references to them, so the cache's memory budget still decides which stay decoded;
+ * one that has been evicted, or whose fetch failed, is shown as the placeholder and fetched again.
+ */
+public class AvatarTable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // Ids whose image is being fetched
+    private final Set<Integer> loading = ConcurrentHashMap.newKeySet();
+    // Called, from any thread, when an avatar arrives
+    private final Runnable onChange;
+    // Indexed by id; replaced, never resized in place, under the table's lock
+    private volatile String[] urls = new String[256];
+    private volatile WeakReference<BufferedImage>[] images = newImages(256);
+    private int count = 0;
+
+    public AvatarTable(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    /**
+     * @return the id of the avatar at url, allocating one and starting to fetch it if it's new
+     */
+    public int idFor(String url) {
+        Integer id = ids.get(url);
+        if (id != null) {
+            return id;
+        }
+        int newId;
+        synchronized (this) {
+            id = ids.get(url);
+            if (id != null) {
+                return id;
+            }
+            newId = count++;
+            if (newId == urls.length) {
+                images = Arrays.copyOf(images, newId * 2);
+                urls = Arrays.copyOf(urls, newId * 2);
+            }
+            urls[newId] = url;
+            ids.put(url, newId);
+        }
+        load(newId);
+        return newId;
+    }
+
+    /**
+     * @return the avatar, or the placeholder if it hasn't arrived yet
+     */
+    public BufferedImage get(int id) {
+        WeakReference<BufferedImage> ref = images[id];
+        BufferedImage image = ref == null ? null : ref.get();
+        if (image == null) {
+            load(id);
+            return ImageCache.getInstance().getDefaultImage();
+        }
+        return image;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private void load(int id) {
+        String url = urls[id];
+        if (url == null || !loading.add(id)) {
+            return;
+        }
+        ImageCache images = ImageCache.getInstance();
+        BufferedImage cached = images.getImage(url, image -> set(id, image));
+        if (cached != images.getDefaultImage()) {
+            set(id, cached);
+        }
+    }
+
+    private void set(int id, BufferedImage image) {
+        if (image == ImageCache.getInstance().getDefaultImage()) {
+            // The fetch failed; it is tried again the next time the avatar is asked for
+            loading.remove(id);
+            return;
+        }
+        synchronized (this) {
+            images[id] = new WeakReference<>(image);
+        }
+        loading.remove(id);
+        onChange.run();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WeakReference<BufferedImage>[] newImages(int n) {
+        return (WeakReference<BufferedImage>[]) new WeakReference<?>[n];
+    }
+}
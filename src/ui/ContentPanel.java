@@ -1,6 +1,5 @@
 package ui;
 
-import org.openstreetmap.gui.jmapviewer.JMapViewer;
 import query.Query;
 
 import javax.swing.*;
@@ -13,14 +12,14 @@ public class ContentPanel extends JPanel {
     private JSplitPane querySplitPane;
     private JPanel newQueryPanel;
     private JPanel existingQueryList;
-    private JMapViewer map;
+    private TweetMapViewer map;
 
     private Application app;
 
     public ContentPanel(Application app) {
         this.app = app;
 
-        map = new JMapViewer();
+        map = new TweetMapViewer();
         map.setMinimumSize(new Dimension(100, 50));
         setLayout(new BorderLayout());
         newQueryPanel = new NewQueryPanel(app);
@@ -79,13 +78,17 @@ public class ContentPanel extends JPanel {
         c.weightx = 1.0;
         c.fill = GridBagConstraints.HORIZONTAL;
         newQueryPanel.add(checkbox, c);
+        JCheckBox heatmapBox = new JCheckBox("heat");
+        heatmapBox.setToolTipText("Show this query as a heatmap");
+        heatmapBox.addActionListener(e -> query.setHeatmap(heatmapBox.isSelected()));
+        newQueryPanel.add(heatmapBox);
         newQueryPanel.add(removeButton);
 
         existingQueryList.add(newQueryPanel);
         validate();
     }
 
-    public JMapViewer getViewer() {
+    public TweetMapViewer getViewer() {
         return map;
     }
 }
@@ -0,0 +1,135 @@
+package ui;
+
+import util.DensityGrid;
+import util.WeightedLruCache;
+import util.WebMercator;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Draws a query's matches as a density heatmap instead of individual markers.
+ * <p>
+ * Each tile of the query's DensityGrid is colourized into a small image on a background thread
+ * and cached until the tile's counts change. Painting only scales the cached tile images onto
+ * the map, drawing a stale image (or nothing) until a fresh one is ready, so the cost of
+ * painting doesn't depend on how many tweets the query has matched.
+ */
+public class HeatmapLayer {
+    // Rendered tiles kept per layer
+    private static final int MAX_CACHED_TILES = 1024;
+    private static final ExecutorService renderer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "heatmap-renderer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final DensityGrid grid;
+    private final Color color;
+    private final WeightedLruCache<Long, RenderedTile> tiles = new WeightedLruCache<>(MAX_CACHED_TILES, t -> 1);
+    // Tiles queued for rendering, and the version they are being rendered for
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    public HeatmapLayer(DensityGrid grid, Color color) {
+        this.grid = grid;
+        this.color = color;
+    }
+
+    public DensityGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Paint the heatmap tiles covering the viewport
+     *
+     * @param g         where to paint
+     * @param viewport  the visible area, in world pixels at the given zoom
+     * @param zoom      the map zoom level
+     * @param repaint   called, from the render thread, once a newly rendered tile is ready
+     */
+    public void paint(Graphics2D g, Rectangle viewport, int zoom, Runnable repaint) {
+        int level = Math.min(zoom, grid.getDepth());
+        long tileSize = (long) WebMercator.TILE_SIZE << (zoom - level);
+        int tilesPerAxis = 1 << level;
+        Object oldInterpolation = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        long firstX = Math.floorDiv(viewport.x, tileSize);
+        long lastX = Math.floorDiv(viewport.x + viewport.width, tileSize);
+        long firstY = Math.max(0, Math.floorDiv(viewport.y, tileSize));
+        long lastY = Math.min(tilesPerAxis - 1, Math.floorDiv(viewport.y + viewport.height, tileSize));
+        for (long ty = firstY; ty <= lastY; ty++) {
+            for (long tx = firstX; tx <= lastX; tx++) {
+                int tileX = (int) Math.floorMod(tx, (long) tilesPerAxis);
+                BufferedImage image = tile(level, tileX, (int) ty, repaint);
+                if (image != null) {
+                    g.drawImage(image, (int) (tx * tileSize - viewport.x), (int) (ty * tileSize - viewport.y),
+                            (int) tileSize, (int) tileSize, null);
+                }
+            }
+        }
+        if (oldInterpolation != null) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldInterpolation);
+        }
+    }
+
+    // The latest rendering of a tile, requesting a new one if the tile has changed since
+    private BufferedImage tile(int level, int tileX, int tileY, Runnable repaint) {
+        long version = grid.version(level, tileX, tileY);
+        if (version < 0) {
+            return null;
+        }
+        long key = ((long) level << 48) | ((long) tileY << 24) | tileX;
+        RenderedTile rendered = tiles.get(key);
+        if ((rendered == null || rendered.version != version) && pending.putIfAbsent(key, version) == null) {
+            renderer.execute(() -> {
+                long v = grid.version(level, tileX, tileY);
+                tiles.put(key, new RenderedTile(render(level, tileX, tileY), v));
+                pending.remove(key);
+                repaint.run();
+            });
+        }
+        return rendered == null ? null : rendered.image;
+    }
+
+    // One pixel per cell: transparent where there is nothing, through the query colour to red where busiest
+    private BufferedImage render(int level, int tileX, int tileY) {
+        BufferedImage image = new BufferedImage(DensityGrid.CELLS, DensityGrid.CELLS, BufferedImage.TYPE_INT_ARGB);
+        int[] counts = grid.counts(level, tileX, tileY);
+        if (counts == null) {
+            return image;
+        }
+        double scale = Math.log1p(Math.max(1, grid.maxCount(level)));
+        for (int y = 0; y < DensityGrid.CELLS; y++) {
+            for (int x = 0; x < DensityGrid.CELLS; x++) {
+                int count = counts[y * DensityGrid.CELLS + x];
+                if (count > 0) {
+                    image.setRGB(x, y, colorize(Math.log1p(count) / scale));
+                }
+            }
+        }
+        return image;
+    }
+
+    private int colorize(double heat) {
+        double t = Math.min(1, Math.max(0, heat));
+        int alpha = (int) (96 + 144 * t);
+        int r = (int) (color.getRed() + (255 - color.getRed()) * t);
+        int gr = (int) (color.getGreen() * (1 - t));
+        int b = (int) (color.getBlue() * (1 - t));
+        return (alpha << 24) | (r << 16) | (gr << 8) | b;
+    }
+
+    private static class RenderedTile {
+        private final BufferedImage image;
+        private final long version;
+
+        private RenderedTile(BufferedImage image, long version) {
+            this.image = image;
+            this.version = version;
+        }
+    }
+}
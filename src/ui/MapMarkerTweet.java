@@ -3,72 +3,64 @@ package ui;
 import org.openstreetmap.gui.jmapviewer.Coordinate;
 import org.openstreetmap.gui.jmapviewer.Layer;
 import org.openstreetmap.gui.jmapviewer.MapMarkerCircle;
-import twitter4j.Status;
+import twitter.TweetRecord;
+import util.Thumbnails;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 
+/**
+ * A map marker showing the avatar of a tweet's author inside a border of the query's colour.
+ * <p>
+ * The avatar is scaled and bordered once, when it is set, so painting is a single image copy.
+ * Rendering hints are set once per frame by TweetMapViewer rather than by each marker.
+ * <p>
+ * The marker keeps a compact TweetRecord rather than the tweet's Status, and a thumbnail shared
+ * with every other marker that has the same avatar and colour.
+ */
 public class MapMarkerTweet extends MapMarkerCircle {
 
-    private final BufferedImage tweetAvatar;
-    private final int IMAGE_SIZE = 24;
+    private volatile BufferedImage thumbnail;
     private final Color borderColor;
-    private final Status tweet;
+    private final TweetRecord tweet;
 
-    public MapMarkerTweet(Layer layer, Coordinate coordinate, BufferedImage image, Color color, Status tweet) {
-        super(layer, coordinate, MapMarkerSimple.defaultMarkerSize);
+    public MapMarkerTweet(Layer layer, TweetRecord tweet, BufferedImage image, Color color) {
+        super(layer, new Coordinate(tweet.getLat(), tweet.getLon()), MapMarkerSimple.defaultMarkerSize);
         if (image == null) {
             throw new IllegalArgumentException("Image cannot be null");
         }
-        tweetAvatar = image;
         borderColor = color;
+        thumbnail = Thumbnails.bordered(image, color);
         this.tweet = tweet;
     }
 
+    /**
+     * Replace the avatar, e.g. once the real image has been fetched in place of a placeholder
+     */
+    public void setImage(BufferedImage image) {
+        if (image == null) {
+            throw new IllegalArgumentException("Image cannot be null");
+        }
+        thumbnail = Thumbnails.bordered(image, borderColor);
+    }
+
     @Override
     public void paint(Graphics g, Point position, int rad) {
-        if (tweetAvatar == null) {
-            throw new IllegalStateException("Image cannot be null");
-        }
         final ImageObserver nullImageObserver = null;
-        borderedImage((Graphics2D) g, position, nullImageObserver);
+        int offset = Thumbnails.SIZE / 2;
+        g.drawImage(thumbnail, position.x - offset, position.y - offset, nullImageObserver);
     }
 
-    private void borderedImage(Graphics2D g, Point position, ImageObserver imageObserver) {
-        applyQualityRenderingHints(g);
-        int border = 4;
-        int offset = IMAGE_SIZE / 2;
-        Color oldColor = g.getColor();
-        g.setColor(borderColor);
-        g.fillRect(position.x - offset - border, position.y - offset - border,
-                IMAGE_SIZE + 2 * border, IMAGE_SIZE + 2 * border);
-        g.setColor(oldColor);
-        g.drawImage(tweetAvatar,
-                position.x - offset, position.y - offset,
-                IMAGE_SIZE, IMAGE_SIZE,
-                imageObserver);
+    public Color getBorderColor() {
+        return borderColor;
     }
 
-    private void applyQualityRenderingHints(Graphics2D g2d) {
-        g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
-        g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    public TweetRecord getTweet() {
+        return tweet;
     }
 
-
     public String getTwitterTip() {
-        String html = String.format("<html><p style=\"word-wrap: break-word;  width: 300px;\">" +
-                        "<img src=\"%s\" alt=\"\" width=\"40\" height=\"40\" />%s</p>" +
-                        "</html>",
-                tweet.getUser().getOriginalProfileImageURL(),
-                tweet.getText());
-
-        return html;
+        return tweet.getTip();
     }
 }
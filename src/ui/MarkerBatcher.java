@@ -0,0 +1,162 @@
+package ui;
+
+import metrics.Distribution;
+import metrics.LatencyTracer;
+import metrics.LatencyTracer.Stage;
+import metrics.MetricGroup;
+import metrics.Metrics;
+import org.openstreetmap.gui.jmapviewer.Layer;
+import twitter.TweetRecord;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stages tweets on their way to the map.
+ * <p>
+ * Tweets can be staged from any thread. They are added to the map on the event dispatch thread
+ * at most once per frame, all pending tweets in one step with one repaint, so a fast stream of
+ * tweets neither touches Swing from the wrong thread nor floods it with repaints.
+ * <p>
+ * Each thread stages into its own lane, so threads staging at once, such as dispatch shards,
+ * don't contend with each other. The lanes are only merged when they are drained, taking a tweet
+ * from each in turn.
+ */
+public class MarkerBatcher {
+    // Tweets are added to the map at most once per this interval
+    private static final int FRAME_MILLIS = 16;
+    // The most tweets added in one frame; any more wait for the next one, keeping the UI responsive
+    private static final int MAX_PER_FRAME = 5000;
+
+    private final TweetMapViewer map;
+    private final List<Lane> lanes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Lane> lane = ThreadLocal.withInitial(() -> {
+        Lane lane = new Lane(Thread.currentThread());
+        lanes.add(lane);
+        return lane;
+    });
+    // Set while a drain is scheduled, so staging only starts the timer once per frame
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Timer timer;
+    private final Distribution batchSize;
+
+    public MarkerBatcher(TweetMapViewer map) {
+        this.map = map;
+        MetricGroup metrics = Metrics.getInstance().group("Map");
+        metrics.gauge("pending", this::getPendingCount);
+        batchSize = metrics.distribution("batchSize");
+        timer = new Timer(FRAME_MILLIS, e -> drain());
+        timer.setRepeats(false);
+        timer.setCoalesce(true);
+    }
+
+    /**
+     * Stage a tweet to be added to the map
+     *
+     * @param layer     the layer to add it to
+     * @param color     the border colour of the layer's markers
+     * @param tweet     the tweet
+     * @param avatar    the id of the tweet's avatar in the map's AvatarTable
+     * @param live      checked on the event dispatch thread just before the tweet is added; if it
+     *                  returns false the tweet is dropped instead, e.g. because its query has gone
+     */
+    public void add(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live) {
+        lane.get().pending.add(new Staged(layer, color, tweet, avatar, live, LatencyTracer.getInstance().current()));
+        if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(timer::restart);
+        }
+    }
+
+    /**
+     * @return how many tweets are waiting to be added
+     */
+    public int getPendingCount() {
+        int n = 0;
+        for (Lane lane : lanes) {
+            n += lane.pending.size();
+        }
+        return n;
+    }
+
+    // Cheaper than getPendingCount, which walks every staged tweet
+    private boolean hasPending() {
+        for (Lane lane : lanes) {
+            if (!lane.pending.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Add everything staged since the last frame; runs on the event dispatch thread
+    private void drain() {
+        scheduled.set(false);
+        int added = 0;
+        int n = 0;
+        boolean more = true;
+        LatencyTracer tracer = LatencyTracer.getInstance();
+        while (more && n < MAX_PER_FRAME) {
+            more = false;
+            for (Lane lane : lanes) {
+                Staged staged = lane.pending.poll();
+                if (staged == null) {
+                    // A thread that has gone can't stage any more, so once its lane is empty it can go too
+                    if (!lane.owner.isAlive() && lane.pending.isEmpty()) {
+                        lanes.remove(lane);
+                    }
+                    continue;
+                }
+                more = true;
+                n++;
+                if (staged.live.getAsBoolean()) {
+                    map.addTweet(staged.layer, staged.color, staged.tweet, staged.avatar);
+                    tracer.record(Stage.INSERT, staged.arrival);
+                    map.awaitPaint(staged.arrival);
+                    added++;
+                }
+            }
+        }
+        if (added > 0) {
+            batchSize.record(added);
+            map.repaint();
+        }
+        if (hasPending() && scheduled.compareAndSet(false, true)) {
+            timer.restart();
+        }
+    }
+
+    // The tweets staged by one thread
+    private static class Lane {
+        private final Thread owner;
+        private final Queue<Staged> pending = new ConcurrentLinkedQueue<>();
+
+        private Lane(Thread owner) {
+            this.owner = owner;
+        }
+    }
+
+    private static class Staged {
+        private final Layer layer;
+        private final Color color;
+        private final TweetRecord tweet;
+        private final int avatar;
+        private final BooleanSupplier live;
+        // The tweet's LatencyTracer stamp, or 0
+        private final long arrival;
+
+        private Staged(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live, long arrival) {
+            this.layer = layer;
+            this.color = color;
+            this.tweet = tweet;
+            this.avatar = avatar;
+            this.live = live;
+            this.arrival = arrival;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ui;
+
+import org.openstreetmap.gui.jmapviewer.Layer;
+import org.openstreetmap.gui.jmapviewer.interfaces.ICoordinate;
+import twitter.TweetRecord;
+import util.QuadTree;
+import util.SphericalGeometry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A spatial index of the tweets on the map, with one quadtree per layer, used to find the
+ * tweets under the mouse pointer and those around the viewport without looking at every one.
+ * <p>
+ * Kept up to date by TweetMapViewer as tweets are added and removed.
+ */
+public class MarkerIndex {
+    private static final double METRES_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    private final Map<Layer, QuadTree<TweetRecord>> layers = new HashMap<>();
+
+    public synchronized void add(Layer layer, TweetRecord tweet) {
+        layers.computeIfAbsent(layer, l -> new QuadTree<>()).insert(tweet.getLat(), tweet.getLon(), tweet);
+    }
+
+    /**
+     * @return whether the tweet was in the index
+     */
+    public synchronized boolean remove(Layer layer, TweetRecord tweet) {
+        QuadTree<TweetRecord> tree = layers.get(layer);
+        return tree != null && tree.remove(tweet.getLat(), tweet.getLon(), tweet);
+    }
+
+    public synchronized void removeLayer(Layer layer) {
+        layers.remove(layer);
+    }
+
+    public synchronized void clear() {
+        layers.clear();
+    }
+
+    /**
+     * Find a layer's tweets within a box, which doesn't wrap around the date line
+     *
+     * @param consumer  passed each tweet in the box
+     */
+    public synchronized void query(Layer layer, double minLat, double minLon, double maxLat, double maxLon,
+                                   Consumer<TweetRecord> consumer) {
+        QuadTree<TweetRecord> tree = layers.get(layer);
+        if (tree != null) {
+            tree.query(minLat, minLon, maxLat, maxLon, consumer);
+        }
+    }
+
+    /**
+     * Find the tweets in visible layers whose markers cover the given position
+     *
+     * @param pos           the position on the map
+     * @param pixelWidth    the width of a screen pixel at pos, in metres
+     * @param radius        the radius of a marker, in pixels
+     * @param skip          layers for which this is true aren't searched, e.g. those not drawn as markers
+     * @param hits          passed the layer and tweet of each marker covering pos
+     */
+    public synchronized void tweetsCovering(ICoordinate pos, double pixelWidth, double radius,
+                                            Predicate<Layer> skip, BiConsumer<Layer, TweetRecord> hits) {
+        double lat = pos.getLat();
+        double lon = normalizeLon(pos.getLon());
+        double limit = radius * pixelWidth;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double dLat = limit / METRES_PER_DEGREE;
+        double dLon = dLat / Math.max(cosLat, 0.01);
+
+        for (Map.Entry<Layer, QuadTree<TweetRecord>> entry : layers.entrySet()) {
+            Layer layer = entry.getKey();
+            if (layer != null && !Boolean.TRUE.equals(layer.isVisible()) || skip.test(layer)) continue;
+            QuadTree<TweetRecord> tree = entry.getValue();
+            Consumer<TweetRecord> check = t -> {
+                // Cheap planar estimate first; the exact distance only for tweets near the limit
+                double x = normalizeLon(t.getLon() - lon) * cosLat * METRES_PER_DEGREE;
+                double y = (t.getLat() - lat) * METRES_PER_DEGREE;
+                double approx2 = x * x + y * y;
+                if (approx2 > limit * limit * 1.21) return;
+                if (SphericalGeometry.distanceBetween(t.getLat(), t.getLon(), lat, lon) < limit) {
+                    hits.accept(layer, t);
+                }
+            };
+            tree.query(lat - dLat, lon - dLon, lat + dLat, lon + dLon, check);
+            // Also look across the date line if the search box crosses it
+            if (lon - dLon < -180) {
+                tree.query(lat - dLat, lon - dLon + 360, lat + dLat, 180, check);
+            }
+            if (lon + dLon > 180) {
+                tree.query(lat - dLat, -180, lat + dLat, lon + dLon - 360, check);
+            }
+        }
+    }
+
+    private static double normalizeLon(double lon) {
+        return ((lon + 180) % 360 + 360) % 360 - 180;
+    }
+
+    public synchronized int size(Layer layer) {
+        QuadTree<TweetRecord> tree = layers.get(layer);
+        return tree == null ? 0 : tree.size();
+    }
+
+    public synchronized int size() {
+        int n = 0;
+        for (QuadTree<TweetRecord> tree : layers.values()) {
+            n += tree.size();
+        }
+        return n;
+    }
+}
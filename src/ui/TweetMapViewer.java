@@ -0,0 +1,509 @@
+package ui;
+
+import metrics.Distribution;
+import metrics.LatencyTracer;
+import metrics.LatencyTracer.Stage;
+import metrics.MetricGroup;
+import metrics.Metrics;
+import org.openstreetmap.gui.jmapviewer.JMapViewer;
+import org.openstreetmap.gui.jmapviewer.Layer;
+import org.openstreetmap.gui.jmapviewer.interfaces.ICoordinate;
+import org.openstreetmap.gui.jmapviewer.interfaces.MapMarker;
+import query.MarkerSink;
+import twitter.TweetRecord;
+import util.ClusterPyramid;
+import util.DensityGrid;
+import util.ImageCache;
+import util.PointColumns;
+import util.Thumbnails;
+import util.WebMercator;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The map on which tweets are shown.
+ * <p>
+ * Tweets are not kept as markers in JMapViewer's single marker list. Each layer has its own
+ * containers: its tweets in PointColumns, in the order they were added, a quadtree in the
+ * MarkerIndex and a cluster pyramid. A hidden layer is skipped without looking at its tweets and
+ * a removed layer is dropped in one step. The columns hold each tweet's position and avatar id in
+ * primitive arrays, from which the oldest tweets are evicted; markers are painted from what the
+ * quadtree finds around the viewport, so a repaint only looks at the tweets near it, however many
+ * the layer holds. A MapMarkerTweet is only made for the tweets under the pointer. Other markers
+ * are left to JMapViewer.
+ * <p>
+ * Rendering state that used to be set by every marker is set once per frame here.
+ * <p>
+ * Below CLUSTER_MAX_ZOOM, the tweet markers of each layer are drawn as clusters: one badge with a
+ * count for all the markers in a grid cell, so zoomed-out views don't paint thousands of overlapping
+ * avatars. The cluster counts are kept up to date as tweets are added and removed.
+ * <p>
+ * Each layer of tweet markers is rendered into its own offscreen image covering the viewport plus
+ * a margin, drawing only the markers in that area. The image is reused until the zoom level
+ * changes or the map is panned past the margin, so most repaints, including hiding and showing
+ * layers, only copy the cached images onto the tiles. Tweets added to a layer of markers are
+ * drawn onto its image as they arrive. Changes that need the image redrawn from scratch, such as
+ * evictions, newly arrived avatars and tweets added to a clustered layer, are coalesced into at
+ * most one redraw per layer every REDRAW_MILLIS, so a stream of tweets doesn't redraw every frame.
+ * <p>
+ * A layer can instead be shown as a heatmap, in which case its HeatmapLayer is painted in place
+ * of its markers.
+ * <p>
+ * As a MarkerSink, the map stages tweets from queries through its MarkerBatcher.
+ */
+public class TweetMapViewer extends JMapViewer implements MarkerSink {
+    private static final int CLUSTER_MAX_ZOOM = 10;
+    private static final int CLUSTER_CELL_PIXELS = 64;
+    // How far beyond the viewport each layer image extends, so small pans reuse it
+    private static final int CACHE_MARGIN = 128;
+    // How far a marker or badge can extend from its position, in pixels
+    private static final int MARKER_EXTENT = 32;
+    // The most added tweets whose first paint is traced; more are ignored until the map is painted
+    private static final int MAX_UNPAINTED = 65536;
+    // The shortest time between redrawing a layer's image from scratch for changes to its tweets
+    private static final int REDRAW_MILLIS = 250;
+    // The most added tweets waiting to be drawn onto a layer's image; past this it is redrawn instead
+    private static final int MAX_FRESH = 4096;
+
+    private final MarkerIndex markerIndex = new MarkerIndex();
+    private final MarkerBatcher batcher = new MarkerBatcher(this);
+    private final AvatarTable avatars = new AvatarTable(this::avatarsChanged);
+    private final Map<Layer, LayerState> layers = new ConcurrentHashMap<>();
+    private final Map<Layer, HeatmapLayer> heatmaps = new ConcurrentHashMap<>();
+    private final Distribution paintTime;
+    // Repaints once a coalesced redraw is due
+    private final Timer redrawTimer = new Timer(REDRAW_MILLIS, e -> repaint());
+    // LatencyTracer stamps of the tweets added since the last paint; only used on the event dispatch thread
+    private long[] unpainted = new long[1024];
+    private int unpaintedCount = 0;
+
+    public TweetMapViewer() {
+        MetricGroup metrics = Metrics.getInstance().group("Map");
+        metrics.gauge("markers", markerIndex::size);
+        paintTime = metrics.distribution("paintNanos");
+        redrawTimer.setRepeats(false);
+    }
+
+    /**
+     * Add a tweet to a layer. Must be called on the event dispatch thread, which should repaint
+     * the map once it has added a batch.
+     *
+     * @param layer     the layer
+     * @param color     the border colour of the layer's markers
+     * @param tweet     the tweet
+     * @param avatar    the id of the tweet's avatar in getAvatars()
+     */
+    public void addTweet(Layer layer, Color color, TweetRecord tweet, int avatar) {
+        LayerState state = layers.computeIfAbsent(layer, l -> new LayerState(color));
+        state.points.add(tweet.getLat(), tweet.getLon(), System.currentTimeMillis(), avatar, tweet);
+        state.pyramid.add(tweet.getLat(), tweet.getLon(), tweet);
+        markerIndex.add(layer, tweet);
+        if (state.zoom < CLUSTER_MAX_ZOOM || state.fresh.size() == MAX_FRESH) {
+            // Cluster badges change with their counts, so a clustered layer is redrawn
+            state.dirty = true;
+        } else if (!state.dirty) {
+            state.fresh.add(tweet);
+        }
+        // Staged before the layer became a heatmap, so not yet counted in it
+        HeatmapLayer heatmap = heatmaps.get(layer);
+        if (heatmap != null) {
+            heatmap.getGrid().add(tweet.getLat(), tweet.getLon());
+        }
+    }
+
+    /**
+     * Remove a layer's oldest tweets while there are more than maxSize of them or they were added
+     * before cutoff. Must be called on the event dispatch thread.
+     *
+     * @return the number of tweets removed
+     */
+    @Override
+    public int evictTweets(Layer layer, long cutoff, int maxSize) {
+        LayerState state = layers.get(layer);
+        if (state == null) {
+            return 0;
+        }
+        int n = state.points.evict(cutoff, maxSize, (lat, lon, avatar, tweet) -> {
+            state.pyramid.remove(lat, lon, tweet);
+            markerIndex.remove(layer, tweet);
+        });
+        if (n > 0) {
+            state.dirty = true;
+            repaint();
+        }
+        return n;
+    }
+
+    /**
+     * Remove a layer and all of its tweets in one step
+     */
+    @Override
+    public void removeLayer(Layer layer) {
+        markerIndex.removeLayer(layer);
+        layers.remove(layer);
+        heatmaps.remove(layer);
+        repaint();
+    }
+
+    /**
+     * @return the number of tweets in a layer
+     */
+    @Override
+    public int getMarkerCount(Layer layer) {
+        LayerState state = layers.get(layer);
+        return state == null ? 0 : state.points.size();
+    }
+
+    @Override
+    public void removeAllMapMarkers() {
+        markerIndex.clear();
+        layers.clear();
+        heatmaps.clear();
+        super.removeAllMapMarkers();
+    }
+
+    /**
+     * Find the tweets in visible layers whose markers cover the given position. Layers shown as
+     * heatmaps have no markers drawn, so they are left out.
+     *
+     * @param pos           the position on the map
+     * @param pixelWidth    the width of a screen pixel at pos, in metres
+     * @return markers for the tweets, made on demand
+     */
+    public List<MapMarker> getMarkersCovering(ICoordinate pos, double pixelWidth) {
+        List<MapMarker> ans = new ArrayList<>();
+        Predicate<Layer> heatmap = layer -> layer != null && heatmaps.containsKey(layer);
+        markerIndex.tweetsCovering(pos, pixelWidth, MapMarkerSimple.defaultMarkerSize, heatmap, (layer, tweet) -> {
+            LayerState state = layers.get(layer);
+            if (state != null) {
+                ans.add(new MapMarkerTweet(layer, tweet, avatarOf(tweet), state.color));
+            }
+        });
+        return ans;
+    }
+
+    /**
+     * Show a layer as a heatmap rather than as markers
+     *
+     * @param layer     the layer
+     * @param heatmap   the heatmap to show, or null to go back to showing markers
+     */
+    public void setHeatmap(Layer layer, HeatmapLayer heatmap) {
+        if (heatmap == null) {
+            heatmaps.remove(layer);
+        } else {
+            heatmaps.put(layer, heatmap);
+        }
+        repaint();
+    }
+
+    /**
+     * Show a layer as a heatmap of the given densities, which are started off with the layer's
+     * tweets. Must be called on the event dispatch thread.
+     */
+    @Override
+    public void setHeatmap(Layer layer, DensityGrid density, Color color) {
+        LayerState state = layers.get(layer);
+        if (density != null && state != null) {
+            state.points.forEach((lat, lon, avatar, tweet) -> density.add(lat, lon));
+        }
+        setHeatmap(layer, density == null ? null : new HeatmapLayer(density, color));
+    }
+
+    @Override
+    public int avatarFor(String url) {
+        return avatars.idFor(url);
+    }
+
+    @Override
+    public void stage(Layer layer, Color color, TweetRecord tweet, int avatar, BooleanSupplier live) {
+        batcher.add(layer, color, tweet, avatar, live);
+    }
+
+    /**
+     * @return where to stage tweets added from outside the event dispatch thread
+     */
+    public MarkerBatcher getMarkerBatcher() {
+        return batcher;
+    }
+
+    /**
+     * @return the avatars of the tweets on the map
+     */
+    public AvatarTable getAvatars() {
+        return avatars;
+    }
+
+    public MarkerIndex getMarkerIndex() {
+        return markerIndex;
+    }
+
+    // An avatar has arrived, on a loader thread; every layer showing the placeholder for it is stale
+    private void avatarsChanged() {
+        for (LayerState state : layers.values()) {
+            state.dirty = true;
+        }
+        SwingUtilities.invokeLater(this::repaint);
+    }
+
+    private BufferedImage avatarOf(TweetRecord tweet) {
+        String url = tweet.getMiniImageUrl();
+        return url == null ? ImageCache.getInstance().getDefaultImage() : avatars.get(avatars.idFor(url));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        applyRenderingHints((Graphics2D) g);
+        super.paintComponent(g);
+        paintLayers((Graphics2D) g);
+        paintTime.record(System.nanoTime() - start);
+        LatencyTracer tracer = LatencyTracer.getInstance();
+        for (int i = 0; i < unpaintedCount; i++) {
+            tracer.record(Stage.PAINT, unpainted[i]);
+        }
+        unpaintedCount = 0;
+    }
+
+    /**
+     * Trace the first paint after a tweet was added. Must be called on the event dispatch thread.
+     *
+     * @param arrival   the tweet's LatencyTracer stamp; nothing is traced if it is 0
+     */
+    void awaitPaint(long arrival) {
+        if (arrival == 0 || unpaintedCount == MAX_UNPAINTED) {
+            return;
+        }
+        if (unpaintedCount == unpainted.length) {
+            unpainted = Arrays.copyOf(unpainted, unpainted.length * 2);
+        }
+        unpainted[unpaintedCount++] = arrival;
+    }
+
+    private void paintLayers(Graphics2D g) {
+        int zoom = getZoom();
+        Point center = getCenter();
+        Rectangle viewport = new Rectangle(center.x - getWidth() / 2, center.y - getHeight() / 2, getWidth(), getHeight());
+        for (Map.Entry<Layer, HeatmapLayer> entry : heatmaps.entrySet()) {
+            if (!Boolean.TRUE.equals(entry.getKey().isVisible())) continue;
+            entry.getValue().paint(g, viewport, zoom, this::repaint);
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Layer, LayerState> entry : layers.entrySet()) {
+            if (!Boolean.TRUE.equals(entry.getKey().isVisible()) || heatmaps.containsKey(entry.getKey())) continue;
+            LayerState state = entry.getValue();
+            boolean moved = state.zoom != zoom || state.area == null || !state.area.contains(viewport);
+            if (moved || state.dirty && now - state.renderedAt >= REDRAW_MILLIS) {
+                render(entry.getKey(), state, zoom, viewport);
+                state.renderedAt = now;
+            } else {
+                if (state.dirty && !redrawTimer.isRunning()) {
+                    redrawTimer.start();
+                }
+                paintFresh(state, zoom);
+            }
+            g.drawImage(state.image, state.area.x - viewport.x, state.area.y - viewport.y, null);
+        }
+    }
+
+    // Draw the tweets added since the layer's image was last drawn onto it
+    private void paintFresh(LayerState state, int zoom) {
+        if (state.fresh.isEmpty()) {
+            return;
+        }
+        Graphics2D g = state.image.createGraphics();
+        applyRenderingHints(g);
+        RenderThumbnails thumbnails = new RenderThumbnails(state.color);
+        long worldSize = (long) WebMercator.TILE_SIZE << zoom;
+        Rectangle reach = reach(state.area);
+        for (TweetRecord tweet : state.fresh) {
+            drawThumbnail(g, state.area, reach, worldSize, zoom, tweet.getLat(), tweet.getLon(), thumbnails.of(tweet));
+        }
+        state.fresh.clear();
+        g.dispose();
+    }
+
+    // Draw the markers (or clusters) of a layer that fall around the viewport into the layer's image
+    private void render(Layer layer, LayerState state, int zoom, Rectangle viewport) {
+        state.dirty = false;
+        state.fresh.clear();
+        Rectangle area = new Rectangle(viewport.x - CACHE_MARGIN, viewport.y - CACHE_MARGIN,
+                viewport.width + 2 * CACHE_MARGIN, viewport.height + 2 * CACHE_MARGIN);
+        if (state.image == null || state.image.getWidth() != area.width || state.image.getHeight() != area.height) {
+            state.image = createLayerImage(area.width, area.height);
+        }
+        state.zoom = zoom;
+        state.area = area;
+
+        Graphics2D g = state.image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, area.width, area.height);
+        g.setComposite(AlphaComposite.SrcOver);
+        applyRenderingHints(g);
+
+        RenderThumbnails thumbnails = new RenderThumbnails(state.color);
+        long worldSize = (long) WebMercator.TILE_SIZE << zoom;
+        Rectangle reach = reach(area);
+        if (zoom < CLUSTER_MAX_ZOOM) {
+            state.pyramid.forEach(zoom, cluster -> {
+                TweetRecord latest = cluster.getLatest();
+                int count = cluster.getCount();
+                BufferedImage thumbnail = count == 1 && latest != null
+                        ? thumbnails.of(latest) : null;
+                paintWrapped(area, reach, worldSize, cluster.getLat(), cluster.getLon(), zoom, p -> {
+                    if (thumbnail != null) {
+                        g.drawImage(thumbnail, p.x - Thumbnails.SIZE / 2, p.y - Thumbnails.SIZE / 2, null);
+                    } else {
+                        paintBadge(g, p, count, state.color);
+                    }
+                });
+            });
+        } else {
+            boolean wraps = reach.x < 0 || reach.x + reach.width > worldSize;
+            double minLon = wraps ? -180 : WebMercator.xToLon(reach.x, zoom);
+            double maxLon = wraps ? 180 : WebMercator.xToLon(reach.x + reach.width, zoom);
+            double maxLat = WebMercator.yToLat(Math.max(0, reach.y), zoom);
+            double minLat = WebMercator.yToLat(Math.min(worldSize, reach.y + reach.height), zoom);
+            // Only the tweets the quadtree finds around the area, not every tweet in the layer
+            markerIndex.query(layer, minLat, minLon, maxLat, maxLon, tweet ->
+                    drawThumbnail(g, area, reach, worldSize, zoom, tweet.getLat(), tweet.getLon(), thumbnails.of(tweet)));
+        }
+        g.dispose();
+    }
+
+    // The area in which a marker's position must be for any of it to show in the given area
+    private static Rectangle reach(Rectangle area) {
+        return new Rectangle(area.x - MARKER_EXTENT, area.y - MARKER_EXTENT,
+                area.width + 2 * MARKER_EXTENT, area.height + 2 * MARKER_EXTENT);
+    }
+
+    // Draw a thumbnail centred on a world position into a layer image covering area, and its copies
+    // either side when the map wraps around; allocates nothing
+    private void drawThumbnail(Graphics2D g, Rectangle area, Rectangle reach, long worldSize, int zoom,
+                               double lat, double lon, BufferedImage thumbnail) {
+        int x = (int) WebMercator.lonToX(lon, zoom);
+        int y = (int) WebMercator.latToY(lat, zoom);
+        if (y < reach.y || y > reach.y + reach.height) return;
+        boolean wrapCopies = isScrollWrapEnabled();
+        int half = Thumbnails.SIZE / 2;
+        for (long copy = wrapCopies ? -1 : 0; copy <= (wrapCopies ? 1 : 0); copy++) {
+            long wx = x + copy * worldSize;
+            if (wx >= reach.x && wx <= reach.x + reach.width) {
+                g.drawImage(thumbnail, (int) (wx - area.x) - half, y - area.y - half, null);
+            }
+        }
+    }
+
+    // Paint something at a world position, and at its copies either side when the map wraps around
+    private void paintWrapped(Rectangle area, Rectangle reach, long worldSize,
+                              double lat, double lon, int zoom, Consumer<Point> painter) {
+        int x = (int) WebMercator.lonToX(lon, zoom);
+        int y = (int) WebMercator.latToY(lat, zoom);
+        if (y < reach.y || y > reach.y + reach.height) return;
+        for (long copy = isScrollWrapEnabled() ? -1 : 0; copy <= (isScrollWrapEnabled() ? 1 : 0); copy++) {
+            long wx = x + copy * worldSize;
+            if (wx >= reach.x && wx <= reach.x + reach.width) {
+                painter.accept(new Point((int) (wx - area.x), y - area.y));
+            }
+        }
+    }
+
+    private BufferedImage createLayerImage(int width, int height) {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc == null) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+
+    // A filled circle, growing with the logarithm of the count, with the count written in it
+    private void paintBadge(Graphics2D g, Point p, int count, Color color) {
+        int radius = 10 + (int) (4 * Math.log10(count));
+        g.setColor(color);
+        g.fillOval(p.x - radius, p.y - radius, 2 * radius, 2 * radius);
+        g.setColor(Color.DARK_GRAY);
+        g.drawOval(p.x - radius, p.y - radius, 2 * radius, 2 * radius);
+        String label = Integer.toString(count);
+        FontMetrics metrics = g.getFontMetrics();
+        g.setColor(Color.BLACK);
+        g.drawString(label, p.x - metrics.stringWidth(label) / 2, p.y + metrics.getAscent() / 2 - 1);
+    }
+
+    // Markers are drawn 1:1 from pre-scaled thumbnails, so only antialiasing of shapes and text matters
+    public static void applyRenderingHints(Graphics2D g2d) {
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+    }
+
+    /**
+     * The thumbnails drawn in one render of a layer, by avatar id, each looked up in Thumbnails once
+     */
+    private class RenderThumbnails {
+        private final Color color;
+        private BufferedImage[] byAvatar = new BufferedImage[avatars.size()];
+        // For tweets without an avatar URL
+        private BufferedImage placeholder;
+
+        private RenderThumbnails(Color color) {
+            this.color = color;
+        }
+
+        BufferedImage get(int avatar) {
+            if (avatar >= byAvatar.length) {
+                byAvatar = Arrays.copyOf(byAvatar, Math.max(avatar + 1, 2 * byAvatar.length));
+            }
+            BufferedImage thumbnail = byAvatar[avatar];
+            if (thumbnail == null) {
+                thumbnail = Thumbnails.bordered(avatars.get(avatar), color);
+                byAvatar[avatar] = thumbnail;
+            }
+            return thumbnail;
+        }
+
+        BufferedImage of(TweetRecord tweet) {
+            String url = tweet.getMiniImageUrl();
+            if (url != null) {
+                return get(avatars.idFor(url));
+            }
+            if (placeholder == null) {
+                placeholder = Thumbnails.bordered(ImageCache.getInstance().getDefaultImage(), color);
+            }
+            return placeholder;
+        }
+    }
+
+    /**
+     * Everything the map keeps for one layer of tweets: the tweets, their clusters and the cached rendering
+     */
+    private static class LayerState {
+        // Appended to and evicted from on the event dispatch thread only
+        private final PointColumns<TweetRecord> points = new PointColumns<>();
+        private final ClusterPyramid<TweetRecord> pyramid = new ClusterPyramid<>(CLUSTER_MAX_ZOOM, CLUSTER_CELL_PIXELS);
+        private final Color color;
+        // Set, from any thread, when the layer's image needs redrawing from scratch
+        private volatile boolean dirty = true;
+        // Tweets added since the image was drawn, to be drawn onto it; EDT only
+        private final List<TweetRecord> fresh = new ArrayList<>();
+        // The cached rendering, the zoom it was made at, the world pixel area it covers and when
+        // it was drawn; EDT only
+        private BufferedImage image;
+        private int zoom = -1;
+        private Rectangle area;
+        private long renderedAt;
+
+        private LayerState(Color color) {
+            this.color = color;
+        }
+    }
+}
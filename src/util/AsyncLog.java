@@ -0,0 +1,293 @@
+package util;
+
+import metrics.MetricGroup;
+import metrics.Metrics;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A log that never makes the caller wait. Events are written as JSON lines, e.g.
+ * {"time":"2026-10-19T12:00:00Z","event":"tweet","user":"fred","text":"hello"}.
+ * <p>
+ * Logging an event only puts it on a bounded lock-free queue; a background thread formats it
+ * and writes it through a buffered NIO channel. When the queue is full the event is dropped
+ * and counted. Frequent events, such as one per tweet, should also be sampled: sample() lets
+ * through one in sampleEvery events, up to maxPerSecond a second.
+ * <p>
+ * The shared log is configured with system properties: twittermap.log names the file to append
+ * to, or - for standard output (the default); twittermap.log.capacity bounds the queue (8192);
+ * twittermap.log.sampleEvery (1) and twittermap.log.maxPerSecond (100, or 0 for no limit)
+ * control sampling. Its counts are published as metrics in the twittermap:type=Log group.
+ */
+public class AsyncLog {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // How long the writer sleeps when there is nothing to write
+    private static final long IDLE_NANOS = 5000000;
+    private static final long CLOSE_WAIT_MILLIS = 2000;
+    private static AsyncLog theInstance = createShared();
+
+    private final WritableByteChannel channel;
+    private final int capacity;
+    private final int sampleEvery;
+    private final int maxPerSecond;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final AtomicLong sampleCount = new AtomicLong();
+    // The second the rate limit is counting, and how many events have been let through in it
+    private final AtomicLong second = new AtomicLong();
+    private final AtomicInteger inSecond = new AtomicInteger();
+    private volatile long written;
+    private volatile boolean closing = false;
+    private final Thread writer;
+
+    public static AsyncLog getInstance() {
+        return theInstance;
+    }
+
+    /**
+     * @param channel       where to write the lines
+     * @param capacity      the most events waiting to be written; more are dropped
+     * @param sampleEvery   sample() lets through one in this many events
+     * @param maxPerSecond  and at most this many a second, or any number if 0
+     */
+    public AsyncLog(WritableByteChannel channel, int capacity, int sampleEvery, int maxPerSecond) {
+        this.channel = channel;
+        this.capacity = capacity;
+        this.sampleEvery = Math.max(sampleEvery, 1);
+        this.maxPerSecond = maxPerSecond;
+        writer = new Thread(this::run, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static AsyncLog createShared() {
+        String target = System.getProperty("twittermap.log", "-");
+        WritableByteChannel channel = null;
+        if (!target.equals("-")) {
+            try {
+                channel = FileChannel.open(Paths.get(target), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                // Log to standard output instead
+                e.printStackTrace();
+            }
+        }
+        if (channel == null) {
+            channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        }
+        AsyncLog log = new AsyncLog(channel,
+                Integer.getInteger("twittermap.log.capacity", 8192),
+                Integer.getInteger("twittermap.log.sampleEvery", 1),
+                Integer.getInteger("twittermap.log.maxPerSecond", 100));
+        MetricGroup metrics = Metrics.getInstance().group("Log");
+        metrics.gauge("queued", log::getQueued);
+        metrics.gauge("dropped", log::getDropped);
+        metrics.gauge("sampledOut", log::getSampledOut);
+        metrics.gauge("written", log::getWritten);
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close, "async-log-close"));
+        return log;
+    }
+
+    /**
+     * Decide whether to log one of a frequent kind of event; check this before building the
+     * event's fields, so events that are sampled out cost next to nothing
+     */
+    public boolean sample() {
+        if (sampleEvery > 1 && sampleCount.getAndIncrement() % sampleEvery != 0) {
+            sampledOut.increment();
+            return false;
+        }
+        if (maxPerSecond > 0) {
+            long now = System.nanoTime() / 1000000000L;
+            long current = second.get();
+            if (current != now && second.compareAndSet(current, now)) {
+                inSecond.set(0);
+            }
+            if (inSecond.incrementAndGet() > maxPerSecond) {
+                sampledOut.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queue an event to be written
+     *
+     * @param event     what happened
+     * @param fields    alternating field names and values; values are written as JSON numbers,
+     *                  booleans or null where they are such, and otherwise as strings
+     * @return whether the event was queued, rather than dropped because the queue was full
+     */
+    public boolean log(String event, Object... fields) {
+        if (closing || queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.add(new Entry(System.currentTimeMillis(), event, fields));
+        return true;
+    }
+
+    /**
+     * Write whatever is queued and stop; later events are dropped
+     */
+    public void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    private void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        StringBuilder line = new StringBuilder(256);
+        long n = 0;
+        while (true) {
+            Entry entry = queue.poll();
+            if (entry == null) {
+                flush(buffer);
+                written = n;
+                if (closing && queue.isEmpty()) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            queued.decrementAndGet();
+            line.setLength(0);
+            format(entry, line);
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > buffer.remaining()) {
+                flush(buffer);
+            }
+            if (bytes.length > buffer.remaining()) {
+                // Longer than the whole buffer, so write it directly
+                drain(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+            n++;
+        }
+        written = n;
+    }
+
+    // Write out and empty the line buffer; on failure its contents are lost
+    private void flush(ByteBuffer buffer) {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        drain(buffer);
+        buffer.clear();
+    }
+
+    private void drain(ByteBuffer bytes) {
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder line) {
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(entry.time)).append("\",\"event\":");
+        appendString(entry.event, line);
+        Object[] fields = entry.fields;
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(',');
+            appendString(String.valueOf(fields[i]), line);
+            line.append(':');
+            Object value = fields[i + 1];
+            if (value == null || value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+                line.append(value);
+            } else if (value instanceof Number && Double.isFinite(((Number) value).doubleValue())) {
+                line.append(value);
+            } else {
+                appendString(String.valueOf(value), line);
+            }
+        }
+        line.append("}\n");
+    }
+
+    private static void appendString(String s, StringBuilder line) {
+        line.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    private static class Entry {
+        private final long time;
+        private final String event;
+        private final Object[] fields;
+
+        private Entry(long time, String event, Object[] fields) {
+            this.time = time;
+            this.event = event;
+            this.fields = fields;
+        }
+    }
+}
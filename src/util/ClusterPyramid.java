@@ -0,0 +1,133 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Counts of points aggregated into grid cells at every zoom level from 0 up to (not including) maxZoom.
+ * <p>
+ * At each zoom level the world is divided into square cells a fixed number of screen pixels wide,
+ * so a cell at one level covers four cells at the next and clusters split as the map is zoomed in.
+ * Adding or removing a point updates one cell per level, so counts stay current as points arrive
+ * instead of being recomputed when the map is painted. Thread-safe.
+ *
+ * @param <T> the type of item clustered
+ */
+public class ClusterPyramid<T> {
+    private final int maxZoom;
+    private final int cellPixels;
+    // For each zoom level, cell key -> cluster
+    private final List<Map<Long, Cluster<T>>> levels = new ArrayList<>();
+
+    /**
+     * @param maxZoom       the first zoom level at which points are no longer clustered
+     * @param cellPixels    the width of a cell, in pixels at its zoom level
+     */
+    public ClusterPyramid(int maxZoom, int cellPixels) {
+        this.maxZoom = maxZoom;
+        this.cellPixels = cellPixels;
+        for (int z = 0; z < maxZoom; z++) {
+            levels.add(new HashMap<>());
+        }
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public synchronized void add(double lat, double lon, T item) {
+        for (int z = 0; z < maxZoom; z++) {
+            levels.get(z).computeIfAbsent(cellKey(lat, lon, z), k -> new Cluster<>()).add(lat, lon, item);
+        }
+    }
+
+    public synchronized void remove(double lat, double lon, T item) {
+        for (int z = 0; z < maxZoom; z++) {
+            long key = cellKey(lat, lon, z);
+            Cluster<T> cluster = levels.get(z).get(key);
+            if (cluster != null && cluster.remove(lat, lon, item)) {
+                levels.get(z).remove(key);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (Map<Long, Cluster<T>> level : levels) {
+            level.clear();
+        }
+    }
+
+    /**
+     * Pass each cluster at the given zoom level to the consumer, which must not keep it.
+     * Nothing is passed if the zoom level isn't clustered.
+     */
+    public synchronized void forEach(int zoom, Consumer<Cluster<T>> consumer) {
+        if (zoom < 0 || zoom >= maxZoom) {
+            return;
+        }
+        levels.get(zoom).values().forEach(consumer);
+    }
+
+    /**
+     * @return the number of clusters at the given zoom level
+     */
+    public synchronized int size(int zoom) {
+        return zoom < 0 || zoom >= maxZoom ? 0 : levels.get(zoom).size();
+    }
+
+    private long cellKey(double lat, double lon, int zoom) {
+        long x = (long) Math.floor(WebMercator.lonToX(lon, zoom) / cellPixels);
+        long y = (long) Math.floor(WebMercator.latToY(lat, zoom) / cellPixels);
+        return (y << 32) | (x & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The points in one cell: their count, centroid and the most recently added item
+     */
+    public static class Cluster<T> {
+        private int count = 0;
+        private double sumLat = 0;
+        private double sumLon = 0;
+        private T latest;
+
+        private void add(double lat, double lon, T item) {
+            count++;
+            sumLat += lat;
+            sumLon += lon;
+            latest = item;
+        }
+
+        // Returns whether the cluster is now empty
+        private boolean remove(double lat, double lon, T item) {
+            count--;
+            sumLat -= lat;
+            sumLon -= lon;
+            if (latest == item) {
+                latest = null;
+            }
+            return count <= 0;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getLat() {
+            return sumLat / count;
+        }
+
+        public double getLon() {
+            return sumLon / count;
+        }
+
+        /**
+         * @return the most recently added item still in the cluster, or null if it has been removed
+         */
+        public T getLatest() {
+            return latest;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Histogram that many threads can record into at once without locking: each value is an atomic
+ * increment of its bucket's count, with the same buckets and precision as Histogram.
+ * <p>
+ * Percentiles are read from a snapshot. A snapshot taken while values are being recorded may
+ * miss some of them, but is otherwise consistent.
+ */
+public class ConcurrentHistogram {
+    private final AtomicLongArray counts = new AtomicLongArray(Histogram.BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value     the value to count; negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(Histogram.bucketOf(value));
+        total.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return a copy of the counts so far
+     */
+    public Histogram snapshot() {
+        long[] copy = new long[Histogram.BUCKETS];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Histogram(copy, total.sum(), min.get(), max.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        min.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,145 @@
+package util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts of points per grid cell at every zoom level from 0 to MAX_LEVEL, for drawing heatmaps.
+ * <p>
+ * Each level is divided into the map's 256 pixel tiles, and each tile into CELLS x CELLS cells.
+ * Tiles are allocated only once a point falls in them, so memory depends on how much of the world
+ * has activity rather than on the number of points. Adding a point increments one cell per level.
+ * Each tile has a version number that changes whenever its counts do, so renderings of it can be
+ * cached. Points may be added from any thread.
+ * <p>
+ * Memory is bounded by a budget of tiles, each about 4KB. Deep levels have by far the most tiles,
+ * so once the budget is spent the deepest level is dropped, repeatedly if need be; the levels that
+ * remain keep exact counts, and getDepth says how deep they go. A heatmap zoomed in further draws
+ * the deepest level that remains, scaled up.
+ */
+public class DensityGrid {
+    public static final int MAX_LEVEL = 12;
+    public static final int CELLS = 32;
+    // About 8MB of counts; enough for levels 0 to 5 even if every tile of them is in use
+    public static final int DEFAULT_MAX_TILES = 2048;
+
+    // For each level, tile key -> cell counts
+    private final Map<Long, Tile>[] levels;
+    // For each level, the largest count in any cell, used to scale colours
+    private final int[] maxCounts = new int[MAX_LEVEL + 1];
+    private final int maxTiles;
+    // The number of tiles allocated at the levels that are kept
+    private final AtomicInteger tiles = new AtomicInteger();
+    // The deepest level still kept
+    private volatile int depth = MAX_LEVEL;
+
+    public DensityGrid() {
+        this(DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * @param maxTiles  the most tiles to allocate before dropping the deepest level
+     */
+    public DensityGrid(int maxTiles) {
+        this.maxTiles = maxTiles;
+        levels = newLevels(MAX_LEVEL + 1);
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            levels[level] = new ConcurrentHashMap<>();
+        }
+    }
+
+    public void add(double lat, double lon) {
+        for (int level = 0; level <= depth; level++) {
+            double x = WebMercator.lonToX(lon, level);
+            double y = WebMercator.latToY(lat, level);
+            int tileX = (int) Math.min((1 << level) - 1, Math.max(0, x / WebMercator.TILE_SIZE));
+            int tileY = (int) Math.min((1 << level) - 1, Math.max(0, y / WebMercator.TILE_SIZE));
+            int cellX = (int) Math.min(CELLS - 1, Math.max(0, (x - tileX * WebMercator.TILE_SIZE) * CELLS / WebMercator.TILE_SIZE));
+            int cellY = (int) Math.min(CELLS - 1, Math.max(0, (y - tileY * WebMercator.TILE_SIZE) * CELLS / WebMercator.TILE_SIZE));
+            Tile tile = levels[level].computeIfAbsent(key(tileX, tileY), k -> {
+                tiles.incrementAndGet();
+                return new Tile();
+            });
+            int count = tile.counts.incrementAndGet(cellY * CELLS + cellX);
+            tile.version.incrementAndGet();
+            if (count > maxCounts[level]) {
+                // A racy maximum is fine; it only scales the colours
+                maxCounts[level] = count;
+            }
+        }
+        if (tiles.get() > maxTiles) {
+            shrink();
+        }
+    }
+
+    // Drop the deepest levels until the tiles fit the budget. A point being added concurrently
+    // may still put a tile in a dropped level; it is never read, and the level is empty otherwise.
+    private synchronized void shrink() {
+        while (tiles.get() > maxTiles && depth > 0) {
+            Map<Long, Tile> dropped = levels[depth];
+            depth--;
+            tiles.addAndGet(-dropped.size());
+            dropped.clear();
+        }
+    }
+
+    /**
+     * @return the deepest level whose counts are kept; deeper levels have been dropped to save memory
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of tiles allocated
+     */
+    public int getTileCount() {
+        return tiles.get();
+    }
+
+    /**
+     * @return the cell counts of a tile, row by row, or null if nothing has been added there or
+     *         the level has been dropped
+     */
+    public int[] counts(int level, int tileX, int tileY) {
+        Tile tile = level > depth ? null : levels[level].get(key(tileX, tileY));
+        if (tile == null) {
+            return null;
+        }
+        int[] ans = new int[CELLS * CELLS];
+        for (int i = 0; i < ans.length; i++) {
+            ans[i] = tile.counts.get(i);
+        }
+        return ans;
+    }
+
+    /**
+     * @return a number that changes whenever the tile's counts do, or -1 if the tile is empty or
+     *         the level has been dropped
+     */
+    public long version(int level, int tileX, int tileY) {
+        Tile tile = level > depth ? null : levels[level].get(key(tileX, tileY));
+        return tile == null ? -1 : tile.version.get();
+    }
+
+    public int maxCount(int level) {
+        return maxCounts[level];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, Tile>[] newLevels(int n) {
+        return (Map<Long, Tile>[]) new Map<?, ?>[n];
+    }
+
+    private static long key(int tileX, int tileY) {
+        return ((long) tileY << 32) | (tileX & 0xFFFFFFFFL);
+    }
+
+    private static class Tile {
+        private final AtomicIntegerArray counts = new AtomicIntegerArray(CELLS * CELLS);
+        private final AtomicLong version = new AtomicLong();
+    }
+}
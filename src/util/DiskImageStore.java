@@ -0,0 +1,313 @@
+package util;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An on-disk store of images, so images fetched in one run of the application are available in the next.
+ * <p>
+ * Images are stored as PNGs appended to a few large pack files rather than one file per image.
+ * An index file maps the SHA-256 of each image URL to its pack, offset and length; it is an
+ * append-only log that is replayed when the store is opened. Writes happen on a background thread.
+ * When the packs grow beyond the size cap, the oldest pack is deleted along with its index entries.
+ */
+public class DiskImageStore {
+    private static final String INDEX_FILE = "index.dat";
+    private static final String PACK_PREFIX = "pack-";
+    private static final String PACK_SUFFIX = ".dat";
+
+    private final File dir;
+    private final long packSize;
+    private final long maxBytes;
+    // URL hash -> where the image is stored
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    // Open pack files by number, for reading
+    private final Map<Integer, FileChannel> packs = new ConcurrentHashMap<>();
+    // Pack numbers, oldest first; only changed on the writer thread after opening
+    private final TreeSet<Integer> packNumbers = new TreeSet<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "image-store-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private DataOutputStream indexLog;
+    private FileChannel currentPack;
+    private int currentPackNumber;
+
+    /**
+     * Open the store, creating it if it doesn't exist
+     *
+     * @param dir       the directory holding the packs and index
+     * @param packSize  the size at which a new pack is started
+     * @param maxBytes  the total size of the packs beyond which the oldest is deleted
+     */
+    public DiskImageStore(File dir, long packSize, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.packSize = packSize;
+        this.maxBytes = maxBytes;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create image store directory " + dir);
+        }
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PACK_PREFIX) && name.endsWith(PACK_SUFFIX));
+        for (File f : files) {
+            String number = f.getName().substring(PACK_PREFIX.length(), f.getName().length() - PACK_SUFFIX.length());
+            packNumbers.add(Integer.parseInt(number));
+        }
+        loadIndex();
+        indexLog = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile(), true)));
+        currentPackNumber = packNumbers.isEmpty() ? 1 : packNumbers.last();
+        openCurrentPack();
+    }
+
+    private void loadIndex() throws IOException {
+        File f = indexFile();
+        if (!f.exists()) {
+            return;
+        }
+        // The length of the log up to the end of the last complete entry
+        long complete = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            while (true) {
+                Entry entry = Entry.read(in);
+                complete += entry.size();
+                if (packNumbers.contains(entry.pack)) {
+                    index.put(entry.hash, entry);
+                }
+            }
+        } catch (EOFException e) {
+            // End of the log, possibly part way through an entry from a crash
+        }
+        if (complete < f.length()) {
+            // Cut off the partial entry, or the entries appended after it would be misread
+            try (FileChannel log = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+                log.truncate(complete);
+            }
+        }
+    }
+
+    /**
+     * Read an image from the store
+     *
+     * @return the image, or null if it isn't stored
+     */
+    public BufferedImage get(String url) {
+        Entry entry = index.get(hash(url));
+        if (entry == null) {
+            return null;
+        }
+        try {
+            FileChannel pack = packs.get(entry.pack);
+            if (pack == null) {
+                return null;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(entry.length);
+            while (bytes.hasRemaining()) {
+                if (pack.read(bytes, entry.offset + bytes.position()) < 0) {
+                    return null;
+                }
+            }
+            return ImageIO.read(new ByteArrayInputStream(bytes.array()));
+        } catch (IOException e) {
+            // The pack was deleted or damaged; treat the image as not stored
+            index.remove(entry.hash, entry);
+            return null;
+        }
+    }
+
+    public boolean contains(String url) {
+        return index.containsKey(hash(url));
+    }
+
+    /**
+     * Store an image in the background
+     */
+    public void put(String url, BufferedImage image) {
+        String hash = hash(url);
+        if (index.containsKey(hash)) {
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                write(hash, image);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void write(String hash, BufferedImage image) throws IOException {
+        if (index.containsKey(hash)) {
+            return;
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", png)) {
+            return;
+        }
+        if (currentPack.size() >= packSize) {
+            currentPackNumber++;
+            openCurrentPack();
+            evict();
+        }
+        long offset = currentPack.size();
+        ByteBuffer bytes = ByteBuffer.wrap(png.toByteArray());
+        while (bytes.hasRemaining()) {
+            currentPack.write(bytes, offset + bytes.position());
+        }
+        Entry entry = new Entry(hash, currentPackNumber, offset, png.size());
+        entry.write(indexLog);
+        indexLog.flush();
+        index.put(hash, entry);
+    }
+
+    private void openCurrentPack() throws IOException {
+        currentPack = FileChannel.open(packFile(currentPackNumber).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        packNumbers.add(currentPackNumber);
+        packs.put(currentPackNumber, currentPack);
+        for (int number : packNumbers) {
+            if (!packs.containsKey(number)) {
+                packs.put(number, FileChannel.open(packFile(number).toPath(), StandardOpenOption.READ));
+            }
+        }
+    }
+
+    // Delete the oldest packs until the store fits its size cap, then compact the index
+    private void evict() throws IOException {
+        boolean evicted = false;
+        while (packNumbers.size() > 1 && totalBytes() > maxBytes) {
+            int oldest = packNumbers.pollFirst();
+            FileChannel pack = packs.remove(oldest);
+            if (pack != null) {
+                pack.close();
+            }
+            if (!packFile(oldest).delete()) {
+                System.out.println("Can't delete image pack " + packFile(oldest));
+            }
+            index.values().removeIf(e -> e.pack == oldest);
+            evicted = true;
+        }
+        if (evicted) {
+            rewriteIndex();
+        }
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (int number : packNumbers) {
+            total += packFile(number).length();
+        }
+        return total;
+    }
+
+    private void rewriteIndex() throws IOException {
+        indexLog.close();
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (Entry entry : index.values()) {
+                entry.write(out);
+            }
+        }
+        // Replaced in one step, so a crash leaves either the old index or the new one
+        File f = indexFile();
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexLog = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f, true)));
+    }
+
+    private File indexFile() {
+        return new File(dir, INDEX_FILE);
+    }
+
+    private File packFile(int number) {
+        return new File(dir, String.format("%s%08d%s", PACK_PREFIX, number, PACK_SUFFIX));
+    }
+
+    /**
+     * @return the number of images in the store
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Wait for pending writes to finish
+     */
+    public void flush() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // I'm going to assume that hashing is good enough and collisions are rare enough.
+    // Hashing a URL is cheap next to the disk access it leads to, so it isn't memoized.
+    private String hash(String url) {
+        return sha256(url);
+    }
+
+    private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
+    public static String bytesToHex(byte[] bytes) {
+        char[] hexChars = new char[bytes.length * 2];
+        for ( int j = 0; j < bytes.length; j++ ) {
+            int v = bytes[j] & 0xFF;
+            hexChars[j * 2] = hexArray[v >>> 4];
+            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+        }
+        return new String(hexChars);
+    }
+
+    private static String sha256(String data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = data.getBytes();
+            md.update(bytes);
+            byte[] hash = md.digest();
+            return bytesToHex(hash);
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Can't find SHA-256");
+        }
+    }
+
+    private static class Entry {
+        private final String hash;
+        private final int pack;
+        private final long offset;
+        private final int length;
+
+        private Entry(String hash, int pack, long offset, int length) {
+            this.hash = hash;
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            return new Entry(in.readUTF(), in.readInt(), in.readLong(), in.readInt());
+        }
+
+        // The number of bytes write takes; the hash is hex, so one byte per character
+        private int size() {
+            return 2 + hash.length() + 4 + 8 + 4;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(hash);
+            out.writeInt(pack);
+            out.writeLong(offset);
+            out.writeInt(length);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package util;
+
+/**
+ * An axis-aligned lat/lon rectangle, e.g. the part of the world currently shown on the map.
+ */
+public class GeoBounds {
+    public static final GeoBounds WORLD = new GeoBounds(-90, -180, 90, 180);
+
+    private final double minLat;
+    private final double minLon;
+    private final double maxLat;
+    private final double maxLon;
+
+    public GeoBounds(double minLat, double minLon, double maxLat, double maxLon) {
+        this.minLat = Math.max(-90, Math.min(minLat, maxLat));
+        this.maxLat = Math.min(90, Math.max(minLat, maxLat));
+        this.minLon = Math.max(-180, Math.min(minLon, maxLon));
+        this.maxLon = Math.min(180, Math.max(minLon, maxLon));
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+    public boolean contains(double lat, double lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    public boolean intersects(GeoBounds other) {
+        return other.minLat <= maxLat && other.maxLat >= minLat
+                && other.minLon <= maxLon && other.maxLon >= minLon;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + minLat + ", " + minLon + " .. " + maxLat + ", " + maxLon + "]";
+    }
+}
@@ -0,0 +1,131 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative long values, such as latencies in nanoseconds, that can report
+ * percentiles.
+ * <p>
+ * Values below 2 * SUB_BUCKETS are counted exactly. Larger values are counted in buckets that
+ * split each power of two into SUB_BUCKETS equal parts, so a reported percentile is within about
+ * 3% of the true value, and recording a value is a few shifts and an array increment. The counts
+ * take about 16KB, however many values are recorded.
+ * <p>
+ * Not thread safe: each thread recording values should have its own histogram, or they can share
+ * a ConcurrentHistogram and take snapshots of it.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts;
+    private long count;
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public Histogram() {
+        counts = new long[BUCKETS];
+    }
+
+    // A histogram of counts that were recorded elsewhere, by ConcurrentHistogram
+    Histogram(long[] counts, long total, long min, long max) {
+        this.counts = counts;
+        for (long n : counts) {
+            count += n;
+        }
+        this.total = total;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @param value     the value to count; negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucketOf(value)]++;
+        count++;
+        total += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Add another histogram's counts to this one
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest value recorded, or 0 if there are none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * @param percentile    between 0 and 100
+     * @return the value that percentile of the recorded values are at or below, rounded up to the
+     *                      top of its bucket but no higher than the largest value; 0 if there are none
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket - shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -1,19 +1,46 @@
 package util;
 
-import javax.imageio.ImageIO;
-import javax.swing.*;
+import metrics.Distribution;
+import metrics.MetricGroup;
+import metrics.Metrics;
+
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Singleton that caches images loaded from twitter urls.
+ * <p>
+ * Images are kept up to a memory budget, measured in decoded pixel bytes, and the least recently
+ * used are evicted first. The budget defaults to 64MB and can be set with the system property
+ * twittermap.imageCacheBytes. The cache may be used from any thread.
+ * <p>
+ * Images that aren't cached are fetched in the background by an ImageLoader; until they
+ * arrive, callers are given a placeholder image. Only images that were actually fetched are
+ * cached. A URL whose fetch failed is remembered for a short while, during which it gets the
+ * placeholder without another fetch; after that it is fetched again. Fetched images are also kept on disk under
+ * data/imagecache, so after a restart they are read from there rather than the network.
+ * <p>
+ * With the system property twittermap.offline set, nothing is fetched or read from disk and every
+ * image is the placeholder, so benchmarks and tests run without a network.
  */
 public class ImageCache {
+    private static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+    private static final int LOADER_THREADS = 8;
+    private static final int LOADER_PER_HOST = 4;
+    private static final int LOADER_TIMEOUT_MILLIS = 5000;
+    private static final long DISK_PACK_SIZE = 16L * 1024 * 1024;
+    private static final long DISK_MAX_BYTES = 256L * 1024 * 1024;
+    private static final boolean OFFLINE = Boolean.getBoolean("twittermap.offline");
+    // How long a failed fetch is remembered, and the most failures remembered at once
+    private static final long FAILURE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_FAILURES = 4096;
     private static ImageCache theInstance = new ImageCache();
     private BufferedImage defaultImage;
 
@@ -21,99 +48,150 @@ public class ImageCache {
         return theInstance;
     }
 
-    private Map<String, BufferedImage> cache = new HashMap<>();
-    private Map<String, String> pathCache = new HashMap<>();
+    private final WeightedLruCache<String, BufferedImage> cache =
+            new WeightedLruCache<>(Long.getLong("twittermap.imageCacheBytes", DEFAULT_BUDGET), ImageCache::imageBytes);
+    private final ImageLoader loader;
+    // URL -> when its failed fetch may be tried again, in System.nanoTime()
+    private final Map<String, Long> failures = new ConcurrentHashMap<>();
+    private final Distribution fetchTime;
 
     private ImageCache() {
+        defaultImage = placeholderImage();
+        MetricGroup metrics = Metrics.getInstance().group("ImageCache");
+        metrics.gauge("hits", this::getHitCount);
+        metrics.gauge("misses", this::getMissCount);
+        metrics.gauge("evictions", this::getEvictionCount);
+        metrics.gauge("memoryUsed", this::getMemoryUsed);
+        fetchTime = metrics.distribution("fetchNanos");
+        DiskImageStore disk = null;
+        if (!OFFLINE) {
+            try {
+                disk = new DiskImageStore(new File("data/imagecache"), DISK_PACK_SIZE, DISK_MAX_BYTES);
+            } catch (IOException e) {
+                // Carry on without the disk tier; images will just be fetched again next time
+                e.printStackTrace();
+            }
+        }
+        loader = new ImageLoader(LOADER_THREADS, LOADER_PER_HOST, LOADER_TIMEOUT_MILLIS, defaultImage, disk);
+    }
 
+    // A plain grey square to show while an image is being fetched
+    private static BufferedImage placeholderImage() {
+        BufferedImage image = new BufferedImage(24, 24, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.LIGHT_GRAY);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+        return image;
     }
 
+    // The memory taken by the decoded pixels of an image
+    private static long imageBytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight()
+                * image.getColorModel().getPixelSize() / 8;
+    }
+
+    /**
+     * Get an image, waiting for it to be fetched if it isn't cached
+     */
     public BufferedImage getImage(String url) {
         BufferedImage ans = cache.get(url);
         if (ans == null) {
-            ans = Util.imageFromURL(url);
-            cache.put(url, ans);
+            ans = fetch(url).join();
         }
         return ans;
     }
 
-    public void loadImage(String url) {
+    /**
+     * Get an image without waiting. If it isn't cached, it is fetched in the background and the
+     * placeholder image is returned; once it arrives it is cached and passed to whenLoaded,
+     * on a loader thread.
+     *
+     * @param url           the image URL
+     * @param whenLoaded    called with the image if it had to be fetched
+     * @return the cached image, or the placeholder
+     */
+    public BufferedImage getImage(String url, Consumer<BufferedImage> whenLoaded) {
         BufferedImage ans = cache.get(url);
         if (ans == null) {
-            cache.put(url, defaultImage);
-            Thread t = new Thread() {
-                @Override
-                public void run() {
-                    BufferedImage ans = Util.imageFromURL(url);
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            cache.put(url, ans);
-                        }
-                    });
-
-                }
-            };
-            t.run();
+            fetch(url).thenAccept(whenLoaded);
+            ans = defaultImage;
         }
+        return ans;
     }
 
-    private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
-    public static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for ( int j = 0; j < bytes.length; j++ ) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+    /**
+     * Start fetching an image in the background if it isn't cached
+     */
+    public void loadImage(String url) {
+        if (!cache.containsKey(url)) {
+            fetch(url);
         }
-        return new String(hexChars);
     }
 
-    private String sha256(String data) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] bytes = data.getBytes();
-            md.update(bytes);
-            byte[] hash = md.digest();
-            return bytesToHex(hash);
-
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Can't find SHA-256");
+    private CompletableFuture<BufferedImage> fetch(String url) {
+        if (OFFLINE) {
+            return CompletableFuture.completedFuture(defaultImage);
         }
-    }
-    private String hashURL(String url) {
-        String hash = pathCache.get(url);
-        if (hash == null) {
-            hash = sha256(url);
+        long start = System.nanoTime();
+        Long retry = failures.get(url);
+        if (retry != null) {
+            if (start - retry < 0) {
+                return CompletableFuture.completedFuture(defaultImage);
+            }
+            failures.remove(url, retry);
         }
-        return hash;
+        return loader.load(url).thenApply(image -> {
+            long end = System.nanoTime();
+            fetchTime.record(end - start);
+            if (image == defaultImage) {
+                fetchFailed(url, end);
+            } else {
+                cache.put(url, image);
+            }
+            return image;
+        });
     }
 
-    // I'm going to assume that hashing is good enough and collisions are rare enough
-    private String saveImage(BufferedImage image, String path) {
-        File dir = new File("data/imagecache");
-        if (!dir.isDirectory()) {
-            dir.mkdir();
+    private void fetchFailed(String url, long now) {
+        if (failures.size() >= MAX_FAILURES) {
+            failures.values().removeIf(retry -> now - retry >= 0);
+            if (failures.size() >= MAX_FAILURES) {
+                return;
+            }
         }
-        String pathString = "data/imagecache/" + path + ".png";
-        File f = new File(pathString);
-        pathString = f.getAbsolutePath();
-        if (f.canRead()) return pathString;
-        try {
-            ImageIO.write(image, "png", f);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return pathString;
-    }
-
-    public String imagePath(String url) {
-        String path = hashURL(url);
-        path = saveImage(getImage(url), path);
-        return path;
+        failures.put(url, now + FAILURE_TTL_NANOS);
     }
 
     public BufferedImage getDefaultImage() {
         return defaultImage;
     }
+
+    /**
+     * Set how many bytes of decoded images the cache may hold
+     */
+    public void setMemoryBudget(long bytes) {
+        cache.setBudget(bytes);
+    }
+
+    public long getMemoryUsed() {
+        return cache.getWeight();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "ImageCache: " + cache;
+    }
 }
\ No newline at end of file
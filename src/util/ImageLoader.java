@@ -0,0 +1,232 @@
+package util;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Fetches images from URLs in the background.
+ * <p>
+ * Fetches run on a fixed pool of threads with a bounded queue of waiting requests. Concurrent
+ * requests for the same URL share one fetch, and connecting and reading are both subject to a
+ * timeout. At most a fixed number of fetches go to any one host at a time; the rest wait in a
+ * queue for that host, and are handed to the pool as earlier ones finish, so no pool thread ever
+ * waits for a host. A request that fails, times out or can't be queued completes with the fallback
+ * image.
+ * <p>
+ * If given a DiskImageStore, images are looked up there before going to the network, and
+ * images fetched from the network are added to it.
+ */
+public class ImageLoader {
+    private static final int MAX_QUEUED = 10000;
+
+    private final ThreadPoolExecutor executor;
+    private final int perHostLimit;
+    private final int timeoutMillis;
+    private final BufferedImage fallback;
+    // May be null, in which case every image comes from the network
+    private final DiskImageStore disk;
+    // The fetches currently queued or running, by URL
+    private final Map<String, CompletableFuture<BufferedImage>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param threads       how many images may be fetched at once
+     * @param perHostLimit  how many images may be fetched at once from a single host
+     * @param timeoutMillis connect and read timeout for each fetch
+     * @param fallback      the image to use when a fetch fails
+     */
+    public ImageLoader(int threads, int perHostLimit, int timeoutMillis, BufferedImage fallback) {
+        this(threads, perHostLimit, timeoutMillis, fallback, null);
+    }
+
+    /**
+     * @param threads       how many images may be fetched at once
+     * @param perHostLimit  how many images may be fetched at once from a single host
+     * @param timeoutMillis connect and read timeout for each fetch
+     * @param fallback      the image to use when a fetch fails
+     * @param disk          where to look for images before fetching them, or null
+     */
+    public ImageLoader(int threads, int perHostLimit, int timeoutMillis, BufferedImage fallback, DiskImageStore disk) {
+        this.perHostLimit = perHostLimit;
+        this.timeoutMillis = timeoutMillis;
+        this.fallback = fallback;
+        this.disk = disk;
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+            Thread t = new Thread(r, "image-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start fetching an image, or join the fetch already under way for the same URL
+     *
+     * @param url   the image URL
+     * @return a future that completes with the image, or the fallback image on failure
+     */
+    public CompletableFuture<BufferedImage> load(String url) {
+        CompletableFuture<BufferedImage> future = inFlight.get(url);
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<BufferedImage> created = new CompletableFuture<>();
+        future = inFlight.putIfAbsent(url, created);
+        if (future != null) {
+            return future;
+        }
+        if (disk == null) {
+            fetch(url, created);
+            return created;
+        }
+        try {
+            executor.execute(() -> loadFromDiskOrFetch(url, created));
+        } catch (RejectedExecutionException e) {
+            complete(url, created, fallback);
+        }
+        return created;
+    }
+
+    private void complete(String url, CompletableFuture<BufferedImage> future, BufferedImage image) {
+        inFlight.remove(url, future);
+        future.complete(image);
+    }
+
+    private void loadFromDiskOrFetch(String url, CompletableFuture<BufferedImage> future) {
+        BufferedImage img = disk.get(url);
+        if (img != null) {
+            complete(url, future, img);
+        } else {
+            fetch(url, future);
+        }
+    }
+
+    // Fetch an image from the network once its host has a free slot
+    private void fetch(String url, CompletableFuture<BufferedImage> future) {
+        URL u;
+        try {
+            u = new URL(url);
+        } catch (MalformedURLException e) {
+            complete(url, future, fallback);
+            return;
+        }
+        Host host = hosts.computeIfAbsent(u.getHost(), h -> new Host());
+        host.submit(new Fetch(url, u, future, host));
+    }
+
+    /**
+     * @return the number of fetches waiting for a thread, not counting those waiting for their host
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public BufferedImage getFallback() {
+        return fallback;
+    }
+
+    private BufferedImage download(URL u) {
+        try {
+            URLConnection connection = u.openConnection();
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            try (InputStream in = connection.getInputStream()) {
+                BufferedImage img = ImageIO.read(in);
+                return img == null ? fallback : img;
+            }
+        } catch (IOException | RuntimeException e) {
+            return fallback;
+        }
+    }
+
+    // A fetch from the network, which holds one of its host's slots while it runs
+    private class Fetch implements Runnable {
+        private final String url;
+        private final URL u;
+        private final CompletableFuture<BufferedImage> future;
+        private final Host host;
+
+        private Fetch(String url, URL u, CompletableFuture<BufferedImage> future, Host host) {
+            this.url = url;
+            this.u = u;
+            this.future = future;
+            this.host = host;
+        }
+
+        @Override
+        public void run() {
+            BufferedImage img = fallback;
+            try {
+                img = download(u);
+                if (disk != null && img != fallback) {
+                    disk.put(url, img);
+                }
+            } finally {
+                host.done();
+                complete(url, future, img);
+            }
+        }
+    }
+
+    // The fetches from one host that are running, and those waiting for a slot
+    private class Host {
+        private final Queue<Fetch> waiting = new ArrayDeque<>();
+        private int running = 0;
+
+        void submit(Fetch fetch) {
+            boolean full;
+            synchronized (this) {
+                if (running < perHostLimit) {
+                    running++;
+                    full = false;
+                } else if (waiting.size() < MAX_QUEUED) {
+                    waiting.add(fetch);
+                    return;
+                } else {
+                    full = true;
+                }
+            }
+            if (full) {
+                complete(fetch.url, fetch.future, fallback);
+            } else {
+                start(fetch);
+            }
+        }
+
+        // Called as each fetch finishes, to give its slot to the next one waiting
+        void done() {
+            start(next());
+        }
+
+        // The next fetch to take a finished fetch's slot, or null, freeing the slot
+        private synchronized Fetch next() {
+            Fetch next = waiting.poll();
+            if (next == null) {
+                running--;
+            }
+            return next;
+        }
+
+        private void start(Fetch fetch) {
+            while (fetch != null) {
+                try {
+                    executor.execute(fetch);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    complete(fetch.url, fetch.future, fallback);
+                    fetch = next();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package util;
+
+import twitter4j.GeoLocation;
+import twitter4j.Place;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The centre of a place's bounding box, which is where tweets from that place are shown.
+ * <p>
+ * Most tweets come from a few thousand city-sized places, so centroids are computed once per
+ * place id and shared. Looking one up is a single hash lookup, with no walk of the bounding box
+ * and no allocation. Once MAX_CACHED places are cached, further places are computed each time.
+ */
+public final class PlaceCentroid {
+    private static final int MAX_CACHED = 100000;
+    private static final Map<String, PlaceCentroid> cache = new ConcurrentHashMap<>();
+
+    private final double lat;
+    private final double lon;
+
+    private PlaceCentroid(double lat, double lon) {
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    /**
+     * @param place a place with a bounding box
+     * @return the centre of its bounding box
+     */
+    public static PlaceCentroid of(Place place) {
+        String id = place.getId();
+        if (id == null) {
+            return compute(place);
+        }
+        PlaceCentroid ans = cache.get(id);
+        if (ans == null) {
+            ans = compute(place);
+            if (cache.size() < MAX_CACHED) {
+                cache.putIfAbsent(id, ans);
+            }
+        }
+        return ans;
+    }
+
+    private static PlaceCentroid compute(Place place) {
+        GeoLocation bottomRight = place.getBoundingBoxCoordinates()[0][0];
+        GeoLocation topLeft = place.getBoundingBoxCoordinates()[0][2];
+        return new PlaceCentroid((bottomRight.getLatitude() + topLeft.getLatitude()) / 2,
+                (bottomRight.getLongitude() + topLeft.getLongitude()) / 2);
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+}
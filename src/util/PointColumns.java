@@ -0,0 +1,141 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A time-ordered store of points kept column by column in primitive arrays.
+ * <p>
+ * Points are appended to fixed-size segments holding parallel arrays of latitude, longitude,
+ * time, an int tag (e.g. an avatar id) and an item reference. There is no object per point, so
+ * millions of points cost a few dozen bytes each and give the garbage collector a handful of
+ * large arrays to scan rather than millions of small objects. Points come off the front as they
+ * expire, a whole segment being dropped once it is empty. Each segment keeps the bounding box of
+ * its points so scans of an area can skip segments that lie elsewhere. Not thread-safe.
+ *
+ * @param <T> the type of item kept with each point
+ */
+public class PointColumns<T> {
+    public static final int SEGMENT_SIZE = 1024;
+
+    /**
+     * Receives points from a scan; called for each point without allocating anything
+     */
+    public interface PointVisitor<T> {
+        void visit(double lat, double lon, int tag, T item);
+    }
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    // The index of the first live point in the first segment
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * Append a point
+     *
+     * @param time  the point's timestamp, no earlier than that of any point already in the store
+     */
+    public void add(double lat, double lon, long time, int tag, T item) {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.count == SEGMENT_SIZE) {
+            segment = new Segment();
+            segments.addLast(segment);
+        }
+        segment.add(lat, lon, time, tag, item);
+        size++;
+    }
+
+    /**
+     * Remove points from the front while there are more than maxSize of them or they are older than cutoff
+     *
+     * @param cutoff    points with a timestamp before this are removed
+     * @param maxSize   the most points to keep
+     * @param evicted   passed each point removed, oldest first
+     * @return the number of points removed
+     */
+    @SuppressWarnings("unchecked")
+    public int evict(long cutoff, int maxSize, PointVisitor<T> evicted) {
+        int n = 0;
+        Segment segment;
+        while (size > 0 && (segment = segments.peekFirst()) != null
+                && (size > maxSize || segment.times[head] < cutoff)) {
+            evicted.visit(segment.lats[head], segment.lons[head], segment.tags[head], (T) segment.items[head]);
+            segment.items[head] = null;
+            head++;
+            size--;
+            n++;
+            if (head == segment.count) {
+                segments.removeFirst();
+                head = 0;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Pass every point to the visitor, oldest first
+     */
+    public void forEach(PointVisitor<T> visitor) {
+        forEachIn(-90, -180, 90, 180, visitor);
+    }
+
+    /**
+     * Pass every point within the given rectangle to the visitor, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachIn(double minLat, double minLon, double maxLat, double maxLon, PointVisitor<T> visitor) {
+        int start = head;
+        for (Segment segment : segments) {
+            if (segment.maxLat >= minLat && segment.minLat <= maxLat
+                    && segment.maxLon >= minLon && segment.minLon <= maxLon) {
+                double[] lats = segment.lats;
+                double[] lons = segment.lons;
+                for (int i = start; i < segment.count; i++) {
+                    double lat = lats[i];
+                    double lon = lons[i];
+                    if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon) {
+                        visitor.visit(lat, lon, segment.tags[i], (T) segment.items[i]);
+                    }
+                }
+            }
+            start = 0;
+        }
+    }
+
+    public void clear() {
+        segments.clear();
+        head = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static class Segment {
+        private final double[] lats = new double[SEGMENT_SIZE];
+        private final double[] lons = new double[SEGMENT_SIZE];
+        private final long[] times = new long[SEGMENT_SIZE];
+        private final int[] tags = new int[SEGMENT_SIZE];
+        private final Object[] items = new Object[SEGMENT_SIZE];
+        private int count = 0;
+        // Bounds of every point ever added, which still bound the live ones
+        private double minLat = Double.POSITIVE_INFINITY;
+        private double minLon = Double.POSITIVE_INFINITY;
+        private double maxLat = Double.NEGATIVE_INFINITY;
+        private double maxLon = Double.NEGATIVE_INFINITY;
+
+        private void add(double lat, double lon, long time, int tag, Object item) {
+            lats[count] = lat;
+            lons[count] = lon;
+            times[count] = time;
+            tags[count] = tag;
+            items[count] = item;
+            count++;
+            minLat = Math.min(minLat, lat);
+            minLon = Math.min(minLon, lon);
+            maxLat = Math.max(maxLat, lat);
+            maxLon = Math.max(maxLon, lon);
+        }
+    }
+}
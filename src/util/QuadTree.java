@@ -0,0 +1,156 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A point quadtree over latitude and longitude.
+ * <p>
+ * Each node covers a rectangle of the world and holds up to a fixed number of points before it
+ * splits into four quadrants, so finding the points in a small rectangle takes time logarithmic
+ * in the number of points. Not thread-safe.
+ *
+ * @param <T> the type of item stored at each point
+ */
+public class QuadTree<T> {
+    private static final int CAPACITY = 16;
+    private static final int MAX_DEPTH = 24;
+
+    private final Node<T> root = new Node<>(-90, -180, 90, 180, 0);
+    private int size = 0;
+
+    public void insert(double lat, double lon, T item) {
+        root.insert(new Entry<>(lat, lon, item));
+        size++;
+    }
+
+    /**
+     * Remove an item stored at the given point
+     *
+     * @return whether the item was found
+     */
+    public boolean remove(double lat, double lon, T item) {
+        if (root.remove(lat, lon, item)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Pass every item within the given rectangle to the consumer
+     */
+    public void query(double minLat, double minLon, double maxLat, double maxLon, Consumer<T> consumer) {
+        root.query(minLat, minLon, maxLat, maxLon, consumer);
+    }
+
+    public void query(GeoBounds bounds, Consumer<T> consumer) {
+        query(bounds.getMinLat(), bounds.getMinLon(), bounds.getMaxLat(), bounds.getMaxLon(), consumer);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static class Entry<T> {
+        private final double lat;
+        private final double lon;
+        private final T item;
+
+        private Entry(double lat, double lon, T item) {
+            this.lat = lat;
+            this.lon = lon;
+            this.item = item;
+        }
+    }
+
+    private static class Node<T> {
+        private final double minLat;
+        private final double minLon;
+        private final double maxLat;
+        private final double maxLon;
+        private final double midLat;
+        private final double midLon;
+        private final int depth;
+        // Points held by a leaf; null once the node has split
+        private List<Entry<T>> entries = new ArrayList<>();
+        // Quadrants, indexed by (north ? 2 : 0) + (east ? 1 : 0); null while the node is a leaf
+        private Node<T>[] children;
+
+        private Node(double minLat, double minLon, double maxLat, double maxLon, int depth) {
+            this.minLat = minLat;
+            this.minLon = minLon;
+            this.maxLat = maxLat;
+            this.maxLon = maxLon;
+            this.midLat = (minLat + maxLat) / 2;
+            this.midLon = (minLon + maxLon) / 2;
+            this.depth = depth;
+        }
+
+        private void insert(Entry<T> entry) {
+            if (children != null) {
+                children[quadrant(entry.lat, entry.lon)].insert(entry);
+                return;
+            }
+            entries.add(entry);
+            if (entries.size() > CAPACITY && depth < MAX_DEPTH) {
+                split();
+            }
+        }
+
+        private void split() {
+            children = newNodes(4);
+            children[0] = new Node<>(minLat, minLon, midLat, midLon, depth + 1);
+            children[1] = new Node<>(minLat, midLon, midLat, maxLon, depth + 1);
+            children[2] = new Node<>(midLat, minLon, maxLat, midLon, depth + 1);
+            children[3] = new Node<>(midLat, midLon, maxLat, maxLon, depth + 1);
+            for (Entry<T> entry : entries) {
+                children[quadrant(entry.lat, entry.lon)].insert(entry);
+            }
+            entries = null;
+        }
+
+        private boolean remove(double lat, double lon, T item) {
+            if (children != null) {
+                return children[quadrant(lat, lon)].remove(lat, lon, item);
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                Entry<T> entry = entries.get(i);
+                if (entry.item == item && entry.lat == lat && entry.lon == lon) {
+                    // Order within a leaf doesn't matter, so fill the gap with the last entry
+                    entries.set(i, entries.get(entries.size() - 1));
+                    entries.remove(entries.size() - 1);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void query(double qMinLat, double qMinLon, double qMaxLat, double qMaxLon, Consumer<T> consumer) {
+            if (qMinLat > maxLat || qMaxLat < minLat || qMinLon > maxLon || qMaxLon < minLon) {
+                return;
+            }
+            if (children != null) {
+                for (Node<T> child : children) {
+                    child.query(qMinLat, qMinLon, qMaxLat, qMaxLon, consumer);
+                }
+                return;
+            }
+            for (Entry<T> entry : entries) {
+                if (entry.lat >= qMinLat && entry.lat <= qMaxLat && entry.lon >= qMinLon && entry.lon <= qMaxLon) {
+                    consumer.accept(entry.item);
+                }
+            }
+        }
+
+        private int quadrant(double lat, double lon) {
+            return (lat >= midLat ? 2 : 0) + (lon >= midLon ? 1 : 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newNodes(int n) {
+            return (Node<T>[]) new Node<?>[n];
+        }
+    }
+}
@@ -4,6 +4,12 @@ import org.openstreetmap.gui.jmapviewer.interfaces.ICoordinate;
 
 /**
  * Spherical Geometry Utilities
+ * <p>
+ * Besides the exact haversine distance there are batch versions, which measure from one point to
+ * arrays of latitudes and longitudes, and an equirectangular approximation for threshold checks.
+ * The approximation scales longitude by the cosine of the origin's latitude, which is computed
+ * once per origin. Its error is under 1% for points up to 100 km apart between 70 degrees south
+ * and north, and it is plain arithmetic, so the JIT can vectorize the batch loop.
  */
 public class SphericalGeometry {
     private static final int RADIUS = 6371000;   // radius of earth in metres
@@ -16,16 +22,94 @@ public class SphericalGeometry {
      * @return distance between p1 and p2 in metres
      */
     public static double distanceBetween(ICoordinate p1, ICoordinate p2) {
-        double lat1 = p1.getLat() / 180.0 * Math.PI;
-        double lat2 = p2.getLat() / 180.0 * Math.PI;
-        double deltaLon = (p2.getLon() - p1.getLon()) / 180.0 * Math.PI;
-        double deltaLat = (p2.getLat() - p1.getLat()) / 180.0 * Math.PI;
+        return distanceBetween(p1.getLat(), p1.getLon(), p2.getLat(), p2.getLon());
+    }
+
+    /**
+     * Find distance in metres between two lat/lon points
+     */
+    public static double distanceBetween(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = lat1 / 180.0 * Math.PI;
+        double phi2 = lat2 / 180.0 * Math.PI;
+        double deltaLon = (lon2 - lon1) / 180.0 * Math.PI;
+        double deltaLat = (lat2 - lat1) / 180.0 * Math.PI;
 
         double a = Math.sin(deltaLat / 2.0) * Math.sin(deltaLat / 2.0)
-                + Math.cos(lat1) * Math.cos(lat2)
+                + Math.cos(phi1) * Math.cos(phi2)
                 * Math.sin(deltaLon / 2.0) * Math.sin(deltaLon / 2.0);
         double c = 2.0 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
 
         return c * RADIUS;
     }
+
+    /**
+     * Find the exact distances in metres from one point to each of n others
+     *
+     * @param lat   latitude of the point to measure from
+     * @param lon   longitude of the point to measure from
+     * @param lats  latitudes of the other points
+     * @param lons  longitudes of the other points
+     * @param out   where to put the distances
+     * @param n     how many points to measure to
+     */
+    public static void distances(double lat, double lon, double[] lats, double[] lons, double[] out, int n) {
+        double phi1 = Math.toRadians(lat);
+        double cosPhi1 = Math.cos(phi1);
+        for (int i = 0; i < n; i++) {
+            double phi2 = Math.toRadians(lats[i]);
+            double sinHalfLat = Math.sin((phi2 - phi1) / 2.0);
+            double sinHalfLon = Math.sin(Math.toRadians(lons[i] - lon) / 2.0);
+            double a = sinHalfLat * sinHalfLat + cosPhi1 * Math.cos(phi2) * sinHalfLon * sinHalfLon;
+            out[i] = 2.0 * RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        }
+    }
+
+    /**
+     * Approximate the distance in metres between two lat/lon points, treating the map around the
+     * first point as flat
+     */
+    public static double approxDistanceBetween(double lat1, double lon1, double lat2, double lon2) {
+        return Math.sqrt(approxDistanceSquared(lat1, lon1, Math.cos(Math.toRadians(lat1)), lat2, lon2));
+    }
+
+    /**
+     * Approximate the distances in metres from one point to each of n others
+     *
+     * @see #distances
+     */
+    public static void approxDistances(double lat, double lon, double[] lats, double[] lons, double[] out, int n) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        for (int i = 0; i < n; i++) {
+            out[i] = Math.sqrt(approxDistanceSquared(lat, lon, cosLat, lats[i], lons[i]));
+        }
+    }
+
+    /**
+     * Find which of n points are approximately within a distance of one point
+     *
+     * @param within    set to whether each point is within radius metres
+     * @return how many points are within radius
+     * @see #distances
+     */
+    public static int approxWithin(double lat, double lon, double[] lats, double[] lons, double radius,
+                                   boolean[] within, int n) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double limit = radius * radius;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            boolean in = approxDistanceSquared(lat, lon, cosLat, lats[i], lons[i]) <= limit;
+            within[i] = in;
+            count += in ? 1 : 0;
+        }
+        return count;
+    }
+
+    // Equirectangular distance squared, taking the shorter way round in longitude
+    private static double approxDistanceSquared(double lat1, double lon1, double cosLat1, double lat2, double lon2) {
+        double dLon = lon2 - lon1;
+        dLon -= 360.0 * Math.rint(dLon / 360.0);
+        double x = Math.toRadians(dLon) * cosLat1 * RADIUS;
+        double y = Math.toRadians(lat2 - lat1) * RADIUS;
+        return x * x + y * y;
+    }
 }
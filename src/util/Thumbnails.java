@@ -0,0 +1,67 @@
+package util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Small, pre-scaled copies of images for drawing map markers.
+ * <p>
+ * A thumbnail is the image scaled down once, with a coloured border baked in, in a format
+ * compatible with the screen so that drawing it is a plain copy. Thumbnails are shared
+ * between all markers with the same image and border colour, and are forgotten once the
+ * original image is no longer referenced.
+ */
+public class Thumbnails {
+    public static final int IMAGE_SIZE = 24;
+    public static final int BORDER = 4;
+    public static final int SIZE = IMAGE_SIZE + 2 * BORDER;
+
+    // Original image -> (border colour -> thumbnail); weak keys so evicted images can be collected
+    private static final Map<BufferedImage, Map<Color, BufferedImage>> thumbnails = new WeakHashMap<>();
+
+    /**
+     * @param image     the full size image
+     * @param border    the colour of the border around it
+     * @return a SIZE x SIZE thumbnail of image with a border
+     */
+    public static BufferedImage bordered(BufferedImage image, Color border) {
+        synchronized (thumbnails) {
+            BufferedImage thumbnail = thumbnails.computeIfAbsent(image, i -> new HashMap<>()).get(border);
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+        BufferedImage thumbnail = createBordered(image, border);
+        synchronized (thumbnails) {
+            thumbnails.computeIfAbsent(image, i -> new HashMap<>()).put(border, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    private static BufferedImage createBordered(BufferedImage image, Color border) {
+        BufferedImage thumbnail = compatibleImage(SIZE, SIZE);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+        g.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        g.setColor(border);
+        g.fillRect(0, 0, SIZE, SIZE);
+        g.drawImage(image, BORDER, BORDER, IMAGE_SIZE, IMAGE_SIZE, null);
+        g.dispose();
+        return thumbnail;
+    }
+
+    // An opaque image in the screen's native format, or a plain RGB image when there is no screen
+    private static BufferedImage compatibleImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+    }
+}
@@ -15,24 +15,23 @@ import java.net.URL;
  * Helpful methods that don't clearly fit anywhere else.
  */
 public class Util {
-    public static GeoLocation statusLocation(Status status) {
-        GeoLocation bottomRight = status.getPlace().getBoundingBoxCoordinates()[0][0];
-        GeoLocation topLeft = status.getPlace().getBoundingBoxCoordinates()[0][2];
-        double newLat = (bottomRight.getLatitude() + topLeft.getLatitude()) / 2;
-        double newLon = (bottomRight.getLongitude() + topLeft.getLongitude()) / 2;
-        return new GeoLocation(newLat, newLon);
+    /**
+     * @return the centre of the tweet's place, shared with every other tweet from that place
+     */
+    public static PlaceCentroid statusCentroid(Status status) {
+        return PlaceCentroid.of(status.getPlace());
     }
 
-    public static Coordinate geoLocationToCoordinate(GeoLocation loc) {
-        return new Coordinate(loc.getLatitude(), loc.getLongitude());
+    public static double statusLat(Status status) {
+        return statusCentroid(status).getLat();
+    }
+
+    public static double statusLon(Status status) {
+        return statusCentroid(status).getLon();
     }
 
-    public static Coordinate statusCoordinate(Status status) {
-        GeoLocation bottomRight = status.getPlace().getBoundingBoxCoordinates()[0][0];
-        GeoLocation topLeft = status.getPlace().getBoundingBoxCoordinates()[0][2];
-        double newLat = (bottomRight.getLatitude() + topLeft.getLatitude()) / 2;
-        double newLon = (bottomRight.getLongitude() + topLeft.getLongitude()) / 2;
-        return new Coordinate(newLat, newLon);
+    public static Coordinate geoLocationToCoordinate(GeoLocation loc) {
+        return new Coordinate(loc.getLatitude(), loc.getLongitude());
     }
 
     public static BufferedImage defaultImage = imageFromURL("http://png-2.findicons.com/files/icons/1995/web_application/48/smiley.png");
@@ -0,0 +1,45 @@
+package util;
+
+/**
+ * The Web Mercator projection used by the map tiles: at zoom level z the world is
+ * 256 * 2^z pixels square, with (0, 0) at the top left (85.05N, 180W).
+ */
+public class WebMercator {
+    public static final int TILE_SIZE = 256;
+    private static final double MAX_LAT = 85.05112878;
+
+    /**
+     * @return the world pixel x coordinate of a longitude at the given zoom
+     */
+    public static double lonToX(double lon, int zoom) {
+        double size = (double) TILE_SIZE * (1L << zoom);
+        return (lon + 180) / 360 * size;
+    }
+
+    /**
+     * @return the world pixel y coordinate of a latitude at the given zoom
+     */
+    public static double latToY(double lat, int zoom) {
+        double size = (double) TILE_SIZE * (1L << zoom);
+        double clamped = Math.max(-MAX_LAT, Math.min(MAX_LAT, lat));
+        double sinLat = Math.sin(Math.toRadians(clamped));
+        return (0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI)) * size;
+    }
+
+    /**
+     * @return the longitude of a world pixel x coordinate at the given zoom
+     */
+    public static double xToLon(double x, int zoom) {
+        double size = (double) TILE_SIZE * (1L << zoom);
+        return x / size * 360 - 180;
+    }
+
+    /**
+     * @return the latitude of a world pixel y coordinate at the given zoom
+     */
+    public static double yToLat(double y, int zoom) {
+        double size = (double) TILE_SIZE * (1L << zoom);
+        double n = Math.PI - 2 * Math.PI * y / size;
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+}
@@ -0,0 +1,118 @@
+package util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe cache that holds entries up to a total weight, evicting the least recently used first.
+ * <p>
+ * Each entry's weight is given by a weigher function, e.g. the number of bytes an image occupies.
+ * An entry heavier than the whole budget is not cached at all.
+ */
+public class WeightedLruCache<K, V> {
+    private final ToLongFunction<V> weigher;
+    // Iterates from least to most recently used
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long budget;
+    private long weight = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public WeightedLruCache(long budget, ToLongFunction<V> weigher) {
+        this.budget = budget;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return the cached value, or null if there is none
+     */
+    public V get(K key) {
+        V value;
+        synchronized (this) {
+            value = map.get(key);
+        }
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        long w = weigher.applyAsLong(value);
+        V old = map.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        if (w > budget) {
+            return;
+        }
+        map.put(key, value);
+        weight += w;
+        evict();
+    }
+
+    public synchronized void remove(K key) {
+        V old = map.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+    }
+
+    /**
+     * Change the total weight the cache may hold, evicting entries if it now holds too much
+     */
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (weight > budget && it.hasNext()) {
+            weight -= weigher.applyAsLong(it.next().getValue());
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d/%d weight, %d hits, %d misses, %d evictions",
+                size(), getWeight(), getBudget(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
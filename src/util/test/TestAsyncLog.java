@@ -0,0 +1,61 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.AsyncLog;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that the async log writes escaped JSON lines, samples and drops rather than blocking
+ */
+public class TestAsyncLog {
+    @Test
+    public void testLines() throws Exception {
+        File file = File.createTempFile("asynclog", ".jsonl");
+        file.deleteOnExit();
+        AsyncLog log = new AsyncLog(FileChannel.open(file.toPath(), StandardOpenOption.WRITE), 1000, 1, 0);
+        assertTrue(log.log("tweet", "id", 42L, "user", "fred", "text", "say \"hi\"\n\\o/"));
+        assertTrue(log.log("sync", "terms", null, "ok", true, "rate", 1.5));
+        log.close();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertTrue(lines.size() == 2, "Lines: " + lines);
+        assertTrue(lines.get(0).startsWith("{\"time\":\""));
+        assertTrue(lines.get(0).endsWith("\"event\":\"tweet\",\"id\":42,\"user\":\"fred\",\"text\":\"say \\\"hi\\\"\\n\\\\o/\"}"),
+                lines.get(0));
+        assertTrue(lines.get(1).endsWith("\"terms\":null,\"ok\":true,\"rate\":1.5}"), lines.get(1));
+        assertTrue(log.getWritten() == 2);
+        assertTrue(!log.log("late"));
+    }
+
+    @Test
+    public void testSamplingAndDropping() throws Exception {
+        File file = File.createTempFile("asynclog", ".jsonl");
+        file.deleteOnExit();
+        AsyncLog sampled = new AsyncLog(FileChannel.open(file.toPath(), StandardOpenOption.WRITE), 1000, 10, 0);
+        int passed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampled.sample()) passed++;
+        }
+        assertTrue(passed == 10 && sampled.getSampledOut() == 90);
+        sampled.close();
+
+        AsyncLog limited = new AsyncLog(FileChannel.open(file.toPath(), StandardOpenOption.WRITE), 0, 1, 5);
+        passed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limited.sample()) passed++;
+        }
+        // The count may straddle a second boundary
+        assertTrue(passed >= 5 && passed <= 10, "Passed " + passed);
+        // With no room in the queue, everything is dropped
+        assertTrue(!limited.log("event"));
+        assertTrue(limited.getDropped() == 1);
+        limited.close();
+    }
+}
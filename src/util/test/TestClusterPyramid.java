@@ -0,0 +1,50 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.ClusterPyramid;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that clusters merge when zoomed out, split when zoomed in, and track removals
+ */
+public class TestClusterPyramid {
+    @Test
+    public void testSplitOnZoom() {
+        ClusterPyramid<String> pyramid = new ClusterPyramid<>(12, 64);
+        pyramid.add(49.26, -123.25, "ubc");
+        pyramid.add(49.28, -123.12, "downtown");
+        pyramid.add(51.50, -0.12, "london");
+        // The whole world is one 256 pixel tile at zoom 0; Vancouver and London are in different cells
+        assertTrue(pyramid.size(0) == 2, "Expected 2 clusters at zoom 0, was " + pyramid.size(0));
+        // By zoom 11 the two Vancouver points are well over 64 pixels apart
+        assertTrue(pyramid.size(11) == 3, "Expected 3 clusters at zoom 11, was " + pyramid.size(11));
+        assertTrue(total(pyramid, 0) == 3);
+        assertTrue(total(pyramid, 11) == 3);
+        assertTrue(pyramid.size(12) == 0);
+    }
+
+    @Test
+    public void testRemove() {
+        ClusterPyramid<String> pyramid = new ClusterPyramid<>(8, 64);
+        String a = "a";
+        String b = "b";
+        pyramid.add(10, 10, a);
+        pyramid.add(10.001, 10.001, b);
+        pyramid.remove(10.001, 10.001, b);
+        pyramid.forEach(0, c -> {
+            assertTrue(c.getCount() == 1);
+            assertTrue(Math.abs(c.getLat() - 10) < 1e-9);
+        });
+        pyramid.remove(10, 10, a);
+        assertTrue(pyramid.size(0) == 0);
+    }
+
+    private int total(ClusterPyramid<String> pyramid, int zoom) {
+        AtomicInteger n = new AtomicInteger();
+        pyramid.forEach(zoom, c -> n.addAndGet(c.getCount()));
+        return n.get();
+    }
+}
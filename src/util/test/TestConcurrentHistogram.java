@@ -0,0 +1,36 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.ConcurrentHistogram;
+import util.Histogram;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that values recorded from several threads at once all land in the snapshot
+ */
+public class TestConcurrentHistogram {
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        ConcurrentHistogram histogram = new ConcurrentHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 1; j <= 100000; j++) {
+                    histogram.record(j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Histogram snapshot = histogram.snapshot();
+        assertTrue(snapshot.getCount() == 400000);
+        assertTrue(snapshot.getMin() == 1 && snapshot.getMax() == 100000);
+        long median = snapshot.getValueAtPercentile(50);
+        assertTrue(median >= 50000 && median <= 52000, "Median was " + median);
+        histogram.reset();
+        assertTrue(histogram.snapshot().getCount() == 0);
+    }
+}
@@ -0,0 +1,61 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.DensityGrid;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that density counts land in the right tiles at every level and that versions track changes
+ */
+public class TestDensityGrid {
+    @Test
+    public void testCounts() {
+        DensityGrid grid = new DensityGrid();
+        assertTrue(grid.version(0, 0, 0) == -1);
+        assertTrue(grid.counts(0, 0, 0) == null);
+        grid.add(49.26, -123.25);
+        grid.add(49.26, -123.25);
+        grid.add(51.50, -0.12);
+        int total = 0;
+        for (int count : grid.counts(0, 0, 0)) {
+            total += count;
+        }
+        assertTrue(total == 3, "Expected 3 points at level 0, was " + total);
+        assertTrue(grid.maxCount(0) == 2);
+        // At level 1 Vancouver is in the north-west tile and London just west of the meridian
+        assertTrue(grid.version(1, 0, 0) >= 0);
+        assertTrue(grid.version(1, 1, 1) == -1);
+        assertTrue(grid.maxCount(DensityGrid.MAX_LEVEL) == 2);
+    }
+
+    @Test
+    public void testMaxTiles() {
+        DensityGrid grid = new DensityGrid(100);
+        // Points spread over the world need a tile each at the deep levels
+        for (int lat = -60; lat <= 60; lat += 2) {
+            for (int lon = -170; lon <= 170; lon += 5) {
+                grid.add(lat, lon);
+            }
+        }
+        assertTrue(grid.getTileCount() <= 100, "Expected at most 100 tiles, was " + grid.getTileCount());
+        int depth = grid.getDepth();
+        assertTrue(depth < DensityGrid.MAX_LEVEL && depth >= 2, "Depth was " + depth);
+        assertTrue(grid.counts(depth + 1, 0, 0) == null && grid.version(depth + 1, 0, 0) == -1);
+        // The levels that are kept still count every point
+        int total = 0;
+        for (int count : grid.counts(0, 0, 0)) {
+            total += count;
+        }
+        assertTrue(total == 61 * 69, "Expected every point at level 0, was " + total);
+    }
+
+    @Test
+    public void testVersion() {
+        DensityGrid grid = new DensityGrid();
+        grid.add(0.5, 0.5);
+        long before = grid.version(0, 0, 0);
+        grid.add(0.5, 0.5);
+        assertTrue(grid.version(0, 0, 0) != before);
+    }
+}
@@ -0,0 +1,83 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.DiskImageStore;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that the disk image store survives reopening and stays within its size cap
+ */
+public class TestDiskImageStore {
+    @Test
+    public void testReopen() throws IOException {
+        File dir = Files.createTempDirectory("images").toFile();
+        DiskImageStore store = new DiskImageStore(dir, 1024 * 1024, 16 * 1024 * 1024);
+        store.put("http://example.com/a.png", image(10, 0xFF0000));
+        store.put("http://example.com/b.png", image(20, 0x00FF00));
+        store.flush();
+
+        DiskImageStore reopened = new DiskImageStore(dir, 1024 * 1024, 16 * 1024 * 1024);
+        BufferedImage a = reopened.get("http://example.com/a.png");
+        assertTrue(a != null && a.getWidth() == 10, "Expected image a to be read back");
+        assertTrue((a.getRGB(0, 0) & 0xFFFFFF) == 0xFF0000);
+        BufferedImage b = reopened.get("http://example.com/b.png");
+        assertTrue(b != null && b.getWidth() == 20, "Expected image b to be read back");
+        assertTrue(reopened.get("http://example.com/c.png") == null);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File dir = Files.createTempDirectory("images").toFile();
+        // Packs of about one image each, room for about three
+        DiskImageStore store = new DiskImageStore(dir, 100, 350);
+        for (int i = 0; i < 10; i++) {
+            store.put("http://example.com/" + i + ".png", image(8, 0x010101 * (i + 1)));
+        }
+        store.flush();
+        assertTrue(store.size() < 10, "Expected old images to be evicted, size was " + store.size());
+        assertTrue(store.get("http://example.com/9.png") != null, "Expected the newest image to be kept");
+        assertTrue(store.get("http://example.com/0.png") == null, "Expected the oldest image to be evicted");
+
+        DiskImageStore reopened = new DiskImageStore(dir, 100, 350);
+        assertTrue(reopened.size() == store.size());
+    }
+
+    @Test
+    public void testTornIndexEntry() throws IOException {
+        File dir = Files.createTempDirectory("images").toFile();
+        DiskImageStore store = new DiskImageStore(dir, 1024 * 1024, 16 * 1024 * 1024);
+        store.put("http://example.com/a.png", image(10, 0xFF0000));
+        store.flush();
+        // Part of an entry, as left by a crash while it was being appended
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "index.dat"), true)) {
+            out.write(new byte[]{0, 64, 'A', 'B'});
+        }
+
+        DiskImageStore reopened = new DiskImageStore(dir, 1024 * 1024, 16 * 1024 * 1024);
+        assertTrue(reopened.size() == 1);
+        reopened.put("http://example.com/b.png", image(20, 0x00FF00));
+        reopened.flush();
+
+        DiskImageStore again = new DiskImageStore(dir, 1024 * 1024, 16 * 1024 * 1024);
+        assertTrue(again.size() == 2, "Expected entries after the torn one to be read, size was " + again.size());
+        BufferedImage b = again.get("http://example.com/b.png");
+        assertTrue(b != null && b.getWidth() == 20, "Expected image b to be read back");
+    }
+
+    private BufferedImage image(int size, int rgb) {
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+}
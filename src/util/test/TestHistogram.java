@@ -0,0 +1,53 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.Histogram;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that histogram percentiles are exact for small values and within a few percent for large ones
+ */
+public class TestHistogram {
+    @Test
+    public void testSmallValues() {
+        Histogram h = new Histogram();
+        assertTrue(h.getValueAtPercentile(50) == 0);
+        for (int i = 1; i <= 50; i++) {
+            h.record(i);
+        }
+        assertTrue(h.getCount() == 50);
+        assertTrue(h.getMin() == 1 && h.getMax() == 50);
+        assertTrue(h.getValueAtPercentile(50) == 25);
+        assertTrue(h.getValueAtPercentile(100) == 50);
+        assertTrue(h.getMean() == 25.5);
+    }
+
+    @Test
+    public void testLargeValues() {
+        Histogram h = new Histogram();
+        for (long i = 1; i <= 1000000; i++) {
+            h.record(i * 1000);
+        }
+        long[] expected = {500000000L, 900000000L, 990000000L, 999000000L};
+        double[] percentiles = {50, 90, 99, 99.9};
+        for (int i = 0; i < percentiles.length; i++) {
+            long value = h.getValueAtPercentile(percentiles[i]);
+            assertTrue(value >= expected[i] && value <= expected[i] * 1.04,
+                    "p" + percentiles[i] + " was " + value);
+        }
+        assertTrue(h.getValueAtPercentile(100) == 1000000000L);
+    }
+
+    @Test
+    public void testAddAndReset() {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        a.record(10);
+        b.record(1L << 40);
+        a.add(b);
+        assertTrue(a.getCount() == 2 && a.getMin() == 10 && a.getMax() == 1L << 40);
+        a.reset();
+        assertTrue(a.getCount() == 0 && a.getMax() == 0 && a.getMin() == 0);
+    }
+}
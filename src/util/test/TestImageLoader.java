@@ -0,0 +1,126 @@
+package util.test;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import util.DiskImageStore;
+import util.ImageLoader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the image loader against a local HTTP server
+ */
+public class TestImageLoader {
+    private final BufferedImage fallback = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    @Test
+    public void testCoalescing() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = startServer(requests, release, 0);
+        try {
+            ImageLoader loader = new ImageLoader(4, 2, 2000, fallback);
+            String url = "http://localhost:" + server.getAddress().getPort() + "/avatar.png";
+            List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(loader.load(url));
+            }
+            release.countDown();
+            for (CompletableFuture<BufferedImage> f : futures) {
+                BufferedImage img = f.get();
+                assertTrue(img != fallback && img.getWidth() == 48, "Expected the served image");
+            }
+            assertTrue(requests.get() == 1, "Expected 1 request, was " + requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHostLimit() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = startServer(requests, release, 0);
+        try {
+            DiskImageStore disk = new DiskImageStore(Files.createTempDirectory("images").toFile(), 1 << 20, 1 << 24);
+            disk.put("http://cached.example/avatar.png", new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB));
+            disk.flush();
+            ImageLoader loader = new ImageLoader(4, 2, 5000, fallback, disk);
+            String base = "http://localhost:" + server.getAddress().getPort() + "/avatar";
+            List<CompletableFuture<BufferedImage>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(loader.load(base + i + ".png"));
+            }
+            // Only two fetches reach the host, and the other threads are free for the disk tier
+            BufferedImage cached = loader.load("http://cached.example/avatar.png").get(2, TimeUnit.SECONDS);
+            assertTrue(cached.getWidth() == 8, "Expected the image from disk");
+            assertTrue(requests.get() <= 2, "Expected at most 2 requests at once, was " + requests.get());
+            release.countDown();
+            for (CompletableFuture<BufferedImage> f : futures) {
+                assertTrue(f.get().getWidth() == 48, "Expected the served image");
+            }
+            assertTrue(requests.get() == 6);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        HttpServer server = startServer(new AtomicInteger(), new CountDownLatch(0), 3000);
+        try {
+            ImageLoader loader = new ImageLoader(4, 2, 200, fallback);
+            String url = "http://localhost:" + server.getAddress().getPort() + "/slow.png";
+            assertTrue(loader.load(url).get() == fallback, "Expected the fallback image after a timeout");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBadUrl() throws Exception {
+        ImageLoader loader = new ImageLoader(1, 1, 200, fallback);
+        assertTrue(loader.load("not a url").get() == fallback);
+    }
+
+    // Serves a 48x48 PNG once release is counted down, after a further delay
+    private HttpServer startServer(AtomicInteger requests, CountDownLatch release, long delayMillis) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(48, 48, BufferedImage.TYPE_INT_RGB), "png", png);
+        byte[] body = png.toByteArray();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            try {
+                release.await();
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            } catch (IOException e) {
+                // The client gave up waiting
+            }
+        });
+        server.start();
+        return server;
+    }
+}
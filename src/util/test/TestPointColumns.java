@@ -0,0 +1,58 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.PointColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test that the columnar point store scans by area and evicts by age and size across segments
+ */
+public class TestPointColumns {
+    @Test
+    public void testForEachIn() {
+        PointColumns<String> points = new PointColumns<>();
+        int n = PointColumns.SEGMENT_SIZE * 3 + 7;
+        for (int i = 0; i < n; i++) {
+            // Every other point in Vancouver, the rest in London
+            if (i % 2 == 0) {
+                points.add(49.26, -123.25, i, i, "v" + i);
+            } else {
+                points.add(51.50, -0.12, i, i, "l" + i);
+            }
+        }
+        assertTrue(points.size() == n);
+        List<String> found = new ArrayList<>();
+        points.forEachIn(49, -124, 50, -123, (lat, lon, tag, item) -> {
+            assertTrue(item.equals("v" + tag));
+            found.add(item);
+        });
+        assertTrue(found.size() == (n + 1) / 2, "Expected " + (n + 1) / 2 + " points, was " + found.size());
+    }
+
+    @Test
+    public void testEvict() {
+        PointColumns<Integer> points = new PointColumns<>();
+        int n = PointColumns.SEGMENT_SIZE * 2 + 10;
+        for (int i = 0; i < n; i++) {
+            points.add(0, 0, i, i, i);
+        }
+        List<Integer> evicted = new ArrayList<>();
+        // By age, into the second segment
+        int removed = points.evict(PointColumns.SEGMENT_SIZE + 5, Integer.MAX_VALUE, (lat, lon, tag, item) -> evicted.add(item));
+        assertTrue(removed == PointColumns.SEGMENT_SIZE + 5);
+        for (int i = 0; i < evicted.size(); i++) {
+            assertTrue(evicted.get(i) == i);
+        }
+        // By size
+        points.evict(Long.MIN_VALUE, 3, (lat, lon, tag, item) -> evicted.add(item));
+        assertTrue(points.size() == 3);
+        List<Integer> left = new ArrayList<>();
+        points.forEach((lat, lon, tag, item) -> left.add(item));
+        assertTrue(left.size() == 3 && left.get(0) == n - 3 && left.get(2) == n - 1);
+        assertTrue(evicted.size() == n - 3);
+    }
+}
@@ -0,0 +1,58 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.QuadTree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the quadtree against a brute force search
+ */
+public class TestQuadTree {
+    @Test
+    public void testQueryMatchesBruteForce() {
+        Random random = new Random(1);
+        QuadTree<Integer> tree = new QuadTree<>();
+        double[][] points = new double[5000][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[]{random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180};
+            tree.insert(points[i][0], points[i][1], i);
+        }
+        for (int q = 0; q < 100; q++) {
+            double lat = random.nextDouble() * 160 - 80;
+            double lon = random.nextDouble() * 340 - 170;
+            double size = random.nextDouble() * 20;
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < points.length; i++) {
+                if (points[i][0] >= lat && points[i][0] <= lat + size && points[i][1] >= lon && points[i][1] <= lon + size) {
+                    expected.add(i);
+                }
+            }
+            Set<Integer> found = new HashSet<>();
+            tree.query(lat, lon, lat + size, lon + size, found::add);
+            assertTrue(found.equals(expected), "Query " + q + " found " + found.size() + ", expected " + expected.size());
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        QuadTree<String> tree = new QuadTree<>();
+        for (int i = 0; i < 100; i++) {
+            tree.insert(10, 20, "m" + i);
+        }
+        String other = "other";
+        tree.insert(10, 20, other);
+        assertTrue(tree.remove(10, 20, other));
+        assertTrue(!tree.remove(10, 20, other));
+        assertTrue(tree.size() == 100);
+        List<String> found = new ArrayList<>();
+        tree.query(9, 19, 11, 21, found::add);
+        assertTrue(found.size() == 100 && !found.contains(other));
+    }
+}
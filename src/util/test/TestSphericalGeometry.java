@@ -0,0 +1,67 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.SphericalGeometry;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the batch distance kernels against the scalar distance, and the approximation's error bound
+ */
+public class TestSphericalGeometry {
+    private static final int N = 10000;
+
+    @Test
+    public void testBatchMatchesScalar() {
+        Random random = new Random(7);
+        double[] lats = new double[N];
+        double[] lons = new double[N];
+        for (int i = 0; i < N; i++) {
+            lats[i] = -90 + 180 * random.nextDouble();
+            lons[i] = -180 + 360 * random.nextDouble();
+        }
+        double[] out = new double[N];
+        SphericalGeometry.distances(49.26, -123.25, lats, lons, out, N);
+        for (int i = 0; i < N; i++) {
+            double expected = SphericalGeometry.distanceBetween(49.26, -123.25, lats[i], lons[i]);
+            assertTrue(Math.abs(out[i] - expected) < 1e-3, "Point " + i + ": " + out[i] + " vs " + expected);
+        }
+    }
+
+    @Test
+    public void testApproxError() {
+        Random random = new Random(11);
+        double lat = 49.26;
+        double lon = -123.25;
+        double[] lats = new double[N];
+        double[] lons = new double[N];
+        for (int i = 0; i < N; i++) {
+            // Within about 100 km
+            lats[i] = lat + 1.8 * (random.nextDouble() - 0.5);
+            lons[i] = lon + 2.7 * (random.nextDouble() - 0.5);
+        }
+        double[] out = new double[N];
+        SphericalGeometry.approxDistances(lat, lon, lats, lons, out, N);
+        for (int i = 0; i < N; i++) {
+            double exact = SphericalGeometry.distanceBetween(lat, lon, lats[i], lons[i]);
+            assertTrue(Math.abs(out[i] - exact) <= 0.01 * exact, "Point " + i + ": " + out[i] + " vs " + exact);
+        }
+        boolean[] within = new boolean[N];
+        int count = SphericalGeometry.approxWithin(lat, lon, lats, lons, 50000, within, N);
+        int expected = 0;
+        for (int i = 0; i < N; i++) {
+            assertTrue(within[i] == (out[i] <= 50000));
+            expected += within[i] ? 1 : 0;
+        }
+        assertTrue(count == expected);
+    }
+
+    @Test
+    public void testApproxAcrossDateLine() {
+        double approx = SphericalGeometry.approxDistanceBetween(0, 179.9, 0, -179.9);
+        double exact = SphericalGeometry.distanceBetween(0, 179.9, 0, -179.9);
+        assertTrue(Math.abs(approx - exact) < 1, "Expected " + exact + ", was " + approx);
+    }
+}
@@ -0,0 +1,54 @@
+package util.test;
+
+import org.junit.jupiter.api.Test;
+import util.WeightedLruCache;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test eviction and statistics of the weighted LRU cache
+ */
+public class TestWeightedLruCache {
+    @Test
+    public void testEviction() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(10, String::length);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.get("a");
+        cache.put("c", "cccc");
+        assertTrue(cache.get("a") != null, "Recently used entry was evicted");
+        assertTrue(cache.get("b") == null, "Least recently used entry was kept");
+        assertTrue(cache.getWeight() == 8, "Expected weight 8, was " + cache.getWeight());
+        assertTrue(cache.getEvictionCount() == 1);
+    }
+
+    @Test
+    public void testTooHeavy() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(3, String::length);
+        cache.put("a", "aaaa");
+        assertTrue(cache.size() == 0);
+        assertTrue(cache.getWeight() == 0);
+    }
+
+    @Test
+    public void testStats() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(100, String::length);
+        cache.put("a", "x");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        assertTrue(cache.getHitCount() == 2);
+        assertTrue(cache.getMissCount() == 1);
+    }
+
+    @Test
+    public void testShrinkBudget() {
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(100, String::length);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, "0123456789");
+        }
+        cache.setBudget(25);
+        assertTrue(cache.size() == 2, "Expected 2 entries, was " + cache.size());
+        assertTrue(cache.get("k9") != null);
+    }
+}